@@ -0,0 +1,73 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cat to the console and through the > redirect, next to the line-based copies
+ * the interpreter used before it switched to FileChannel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CatBenchmark {
+    @Param({ "1024", "1048576", "104857600", "1073741824" })
+    public long size;
+
+    private Path root;
+    private File input;
+    private Main cli;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("cat");
+        input = Fixtures.textFile(root, "input.txt", size).toFile();
+        cli = new Main();
+        cli.cd(root.toString());
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void cat() {
+        cli.cat("input.txt");
+        cli.flush();
+    }
+
+    @Benchmark
+    public void catLineBased() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(input))) {
+            reader.lines().forEach(System.out::println);
+        }
+    }
+
+    @Benchmark
+    public void catRedirect() {
+        cli.catOrg(new String[] { "cat", "input.txt", ">", "output.txt" });
+    }
+
+    @Benchmark
+    public void catRedirectLineBased() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(root.toFile(), "output.txt")));
+                BufferedReader reader = new BufferedReader(new FileReader(input))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lines per second written to the console for a 10M-line file: println on an
+ * autoflushing PrintStream, as every command did before, against the output sink,
+ * and cat and a pipeline as run by the interpreter. The console is /dev/null, so
+ * the write calls are real but the terminal is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ConsoleBenchmark.LINES)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class ConsoleBenchmark {
+    static final int LINES = 10_000_000;
+
+    private Path root;
+    private File input;
+    private Main cli;
+    private PrintStream console;
+    private PrintStream devNull;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("console");
+        input = Fixtures.lineFile(root, "lines.txt", LINES).toFile();
+        cli = new Main();
+        cli.cd(root.toString());
+        console = System.out;
+        devNull = new PrintStream(new FileOutputStream("/dev/null"), true);
+        System.setOut(devNull);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        devNull.close();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void printStreamLines() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(input))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    @Benchmark
+    public void sinkLines() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(input))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                cli.out().println(line);
+            }
+        }
+        cli.flush();
+    }
+
+    @Benchmark
+    public void cat() {
+        cli.cat("lines.txt");
+        cli.flush();
+    }
+
+    @Benchmark
+    public void pipeline() {
+        cli.execute("cat lines.txt | grep line");
+        cli.flush();
+    }
+}
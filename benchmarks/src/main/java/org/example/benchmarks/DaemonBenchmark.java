@@ -0,0 +1,63 @@
+package org.example.benchmarks;
+
+import org.example.Client;
+import org.example.Daemon;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One ls of a 100-entry directory sent to a warm daemon over its Unix socket, new
+ * connection and session included: what a Client call costs on top of starting
+ * its JVM, against the hundreds of milliseconds of starting the interpreter's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DaemonBenchmark {
+    private Path root;
+    private Path socket;
+    private Daemon daemon;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("daemon");
+        for (int i = 0; i < 100; i++) {
+            Files.createFile(root.resolve("file-" + i));
+        }
+        socket = root.resolve("cli.sock");
+        daemon = new Daemon(socket);
+        daemon.bind();
+        Thread.ofVirtual().start(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        daemon.close();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public int ls() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Client.run(SocketChannel.open(UnixDomainSocketAddress.of(socket)), root, "ls", InputStream.nullInputStream(),
+                out, out);
+        return out.size();
+    }
+}
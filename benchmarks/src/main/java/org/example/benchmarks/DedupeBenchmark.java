@@ -0,0 +1,69 @@
+package org.example.benchmarks;
+
+import org.example.Checksums;
+import org.example.HashCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * dedupe over 200 files of 1 MB, all the same size, a quarter of them copies: cold
+ * with an empty hash cache, so every file has its partial hash read and the copies
+ * a full one, and warm with the cache of an earlier run, where no file is read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DedupeBenchmark {
+    private static final int FILES = 200;
+    private static final int SIZE = 1 << 20;
+
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private Path root;
+    private Path cacheFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("dedupe");
+        Random random = new Random(42);
+        byte[] data = new byte[SIZE];
+        for (int i = 0; i < FILES; i++) {
+            if (i % 4 != 1) {
+                random.nextBytes(data);
+            }
+            Files.write(root.resolve("file-" + i), data);
+        }
+        cacheFile = root.resolve("hashes");
+        HashCache cache = new HashCache(cacheFile);
+        new Checksums(parallelism, cache, new AtomicLong()).duplicates(root, new HashMap<>());
+        cache.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public int cold() throws IOException {
+        HashCache cache = new HashCache(root.resolve("missing"));
+        return new Checksums(parallelism, cache, new AtomicLong()).duplicates(root, new HashMap<>()).size();
+    }
+
+    @Benchmark
+    public int warm() throws IOException {
+        HashCache cache = new HashCache(cacheFile);
+        return new Checksums(parallelism, cache, new AtomicLong()).duplicates(root, new HashMap<>()).size();
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cmp and diff of a 256 MB text file against copies of it. cmp finds one changed
+ * byte near the end, next to the same search over the files read through streams.
+ * diff gets a copy with three lines inserted in the middle, where the shared head
+ * and tail are skipped, and one with a line inserted at the start and near the end,
+ * where every line goes through the hashes and Myers' algorithm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DiffBenchmark {
+    private static final long SIZE = 256L << 20;
+
+    private Path root;
+    private Main cli;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("diff");
+        Path original = Fixtures.textFile(root, "a.txt", SIZE);
+        Files.copy(original, root.resolve("byte.txt"), StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel out = FileChannel.open(root.resolve("byte.txt"), StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(new byte[] { '#' }), SIZE - 100);
+        }
+        edit(original, root.resolve("middle.txt"), SIZE / 2, SIZE / 2 + 5000, SIZE / 2 + 90000);
+        edit(original, root.resolve("ends.txt"), 0, SIZE - 10);
+        cli = new Main();
+        cli.cd(root.toString());
+        console = Fixtures.silenceConsole();
+    }
+
+    // A copy with a line inserted before the line holding each offset, offsets ascending
+    private static void edit(Path from, Path to, long... offsets) throws IOException {
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (long offset : offsets) {
+                position = copy(in, position, lineStart(in, offset), out);
+                out.write(ByteBuffer.wrap("an inserted line\n".getBytes()));
+            }
+            copy(in, position, in.size(), out);
+        }
+    }
+
+    private static long copy(FileChannel in, long from, long to, FileChannel out) throws IOException {
+        while (from < to) {
+            from += in.transferTo(from, to - from, out);
+        }
+        return to;
+    }
+
+    private static long lineStart(FileChannel in, long offset) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        for (long position = offset; position > 0; position--) {
+            one.clear();
+            in.read(one, position - 1);
+            if (one.get(0) == '\n') {
+                return position;
+            }
+        }
+        return 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public boolean cmp() {
+        return cli.cmp(new String[] { "cmp", "a.txt", "byte.txt" });
+    }
+
+    // What cmp computes, the first differing byte and its line, over two buffered streams
+    @Benchmark
+    public long cmpStream() throws IOException {
+        try (InputStream a = new BufferedInputStream(Files.newInputStream(root.resolve("a.txt")), 1 << 16);
+                InputStream b = new BufferedInputStream(Files.newInputStream(root.resolve("byte.txt")), 1 << 16)) {
+            byte[] x = new byte[1 << 16];
+            byte[] y = new byte[1 << 16];
+            long line = 1;
+            while (true) {
+                int n = a.readNBytes(x, 0, x.length);
+                b.readNBytes(y, 0, n);
+                int at = Arrays.mismatch(x, 0, n, y, 0, n);
+                for (int i = 0; i < (at < 0 ? n : at); i++) {
+                    if (x[i] == '\n') {
+                        line++;
+                    }
+                }
+                if (at >= 0 || n < x.length) {
+                    return line;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean diffMiddle() {
+        boolean same = cli.diff(new String[] { "diff", "a.txt", "middle.txt" });
+        cli.flush();
+        return same;
+    }
+
+    @Benchmark
+    public boolean diffEnds() {
+        boolean same = cli.diff(new String[] { "diff", "a.txt", "ends.txt" });
+        cli.flush();
+        return same;
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.benchmarks;
+
+import org.example.FileSystemBackends;
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mv, rm, mkdir and touch over a whole fixture of the given size, on disk and on
+ * the in-memory file system. Every invocation gets a fresh fixture, so these run in
+ * single shot mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class FileOpsBenchmark {
+    @Param({ "10", "10000", "1000000" })
+    public int entries;
+
+    @Param({ "disk", "memory" })
+    public String backend;
+
+    private FileSystem fileSystem;
+    private Path root;
+    private Main cli;
+    private String[] names;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        fileSystem = FileSystemBackends.open(backend);
+        names = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            names[i] = Fixtures.fileName(i);
+        }
+        console = Fixtures.silenceConsole();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("ops", fileSystem);
+        Fixtures.flatTree(root, "source", entries);
+        Files.createDirectories(root.resolve("target"));
+        cli = new Main(fileSystem);
+        cli.cd(root.resolve("source").toString());
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        System.setOut(console);
+        if (!FileSystemBackends.isDisk(fileSystem)) {
+            fileSystem.close();
+        }
+    }
+
+    @Benchmark
+    public boolean mv() {
+        String[] command = new String[entries + 2];
+        command[0] = "mv";
+        System.arraycopy(names, 0, command, 1, entries);
+        command[entries + 1] = "../target";
+        return cli.mv(command);
+    }
+
+    @Benchmark
+    public boolean rm() {
+        String[] command = new String[entries + 1];
+        command[0] = "rm";
+        System.arraycopy(names, 0, command, 1, entries);
+        return cli.rm(command);
+    }
+
+    @Benchmark
+    public boolean mkdir() {
+        String[] dirs = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            dirs[i] = "../made/dir-" + i;
+        }
+        return cli.mkdir(dirs);
+    }
+
+    @Benchmark
+    public boolean touch() {
+        boolean ok = true;
+        for (int i = 0; i < entries; i++) {
+            ok &= cli.touch(root.resolve("touched").resolve(names[i]).toString());
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.benchmarks;
+
+import org.example.FileSystemBackends;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generated fixture trees and files for the benchmarks. Everything is created under
+ * a temporary directory and removed again in the benchmark's tear down.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory("cli-bench-" + prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // On the in-memory file system, its /tmp
+    static Path tempDir(String prefix, FileSystem fileSystem) throws IOException {
+        if (FileSystemBackends.isDisk(fileSystem)) {
+            return tempDir(prefix);
+        }
+        return Files.createTempDirectory(FileSystemBackends.tempDirectory(fileSystem), "cli-bench-" + prefix);
+    }
+
+    // A flat directory holding the given number of empty files
+    static Path flatTree(Path parent, String name, int entries) throws IOException {
+        Path dir = Files.createDirectories(parent.resolve(name));
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(dir.resolve(fileName(i)));
+        }
+        return dir;
+    }
+
+    // Two levels of width subdirectories, with the files spread over the width * width leaves
+    static Path nestedTree(Path parent, String name, int files, int width) throws IOException {
+        Path root = Files.createDirectories(parent.resolve(name));
+        int leaves = width * width;
+        for (int i = 0; i < files; i++) {
+            int leaf = i % leaves;
+            Path dir = root.resolve("d" + leaf / width).resolve("d" + leaf % width);
+            if (i < leaves) {
+                Files.createDirectories(dir);
+            }
+            Files.createFile(dir.resolve(fileName(i)));
+        }
+        return root;
+    }
+
+    // A text file of about the given size, made of numbered lines
+    static Path textFile(Path dir, String name, long size) throws IOException {
+        Path file = dir.resolve(name);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        long written = 0;
+        long line = 0;
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (written < size) {
+                byte[] bytes = ((line++ % 100 == 0 ? "ERROR " : "INFO ") + "line " + line + " of the fixture\n")
+                        .getBytes(StandardCharsets.UTF_8);
+                int length = (int) Math.min(bytes.length, size - written);
+                if (buffer.remaining() < length) {
+                    buffer.flip();
+                    out.write(buffer);
+                    buffer.clear();
+                }
+                buffer.put(bytes, 0, length);
+                written += length;
+            }
+            buffer.flip();
+            out.write(buffer);
+        }
+        return file;
+    }
+
+    // A file of exactly the given number of lines, in the format of textFile
+    static Path lineFile(Path dir, String name, long lines) throws IOException {
+        Path file = dir.resolve(name);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long line = 0; line < lines; line++) {
+                byte[] bytes = ((line % 100 == 0 ? "ERROR " : "INFO ") + "line " + (line + 1) + " of the fixture\n")
+                        .getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < bytes.length) {
+                    buffer.flip();
+                    out.write(buffer);
+                    buffer.clear();
+                }
+                buffer.put(bytes);
+            }
+            buffer.flip();
+            out.write(buffer);
+        }
+        return file;
+    }
+
+    static String fileName(int i) {
+        return "file-" + i + ".txt";
+    }
+
+    static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    // Commands print their results, keep that out of the measurement
+    static PrintStream silenceConsole() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return console;
+    }
+}
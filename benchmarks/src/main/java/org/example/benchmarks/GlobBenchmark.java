@@ -0,0 +1,66 @@
+package org.example.benchmarks;
+
+import org.example.GlobExpansion;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Three patterns over one directory of 100,000 files, as in rm *1.txt *2.txt *3.txt:
+ * expanded together in one listing, next to a filtered DirectoryStream per pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class GlobBenchmark {
+    private static final List<String> PATTERNS = List.of("*1.txt", "*2.txt", "*3.txt");
+
+    private Path root;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("glob");
+        dir = Fixtures.flatTree(root, "flat", 100_000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public int expand() {
+        int count = 0;
+        for (List<String> matches : GlobExpansion.matches(PATTERNS, dir)) {
+            count += matches.size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int streamPerPattern() throws IOException {
+        int count = 0;
+        for (String pattern : PATTERNS) {
+            List<String> matches = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, pattern)) {
+                for (Path path : stream) {
+                    matches.add(path.getFileName().toString());
+                }
+            }
+            Collections.sort(matches);
+            count += matches.size();
+        }
+        return count;
+    }
+}
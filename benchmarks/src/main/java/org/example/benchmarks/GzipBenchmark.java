@@ -0,0 +1,74 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * cat of a 64 MB text file gzipped, and cat >z of the plain file on one thread and
+ * on four, next to the GZIPInputStream and GZIPOutputStream copies they replace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class GzipBenchmark {
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private Path root;
+    private Main cli;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("gzip");
+        Path input = Fixtures.textFile(root, "input.txt", 64L << 20);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(root.resolve("input.gz")), 1 << 16)) {
+            Files.copy(input, out);
+        }
+        cli = new Main();
+        cli.cd(root.toString());
+        cli.setParallelism(parallelism);
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void cat() {
+        cli.cat("input.gz");
+        cli.flush();
+    }
+
+    @Benchmark
+    public void catStream() throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(root.resolve("input.gz")), 1 << 16)) {
+            in.transferTo(System.out);
+        }
+    }
+
+    @Benchmark
+    public void catCompress() {
+        cli.catOrg(new String[] { "cat", "input.txt", ">z", "output.gz" });
+    }
+
+    @Benchmark
+    public void catCompressStream() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(root.resolve("output.gz")), 1 << 16)) {
+            Files.copy(root.resolve("input.txt"), out);
+        }
+    }
+}
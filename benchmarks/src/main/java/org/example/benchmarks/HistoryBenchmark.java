@@ -0,0 +1,88 @@
+package org.example.benchmarks;
+
+import org.example.History;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History over a file of the given number of entries: opening it and listing the
+ * last 20 as at startup, finding the last command with a prefix once the index is
+ * built, building that index, and appending one command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class HistoryBenchmark {
+    @Param({ "1000", "1000000" })
+    public int entries;
+
+    private Path root;
+    private Path file;
+    private History history;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("history");
+        file = root.resolve("history");
+        // Written directly in the record format, a million add calls would take a while
+        ByteBuffer buffer = ByteBuffer.allocate(History.RECORD_SIZE * 1024);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < entries; i++) {
+                byte[] command = ("cat file-" + i % 50_000 + ".txt | grep " + i % 7).getBytes(StandardCharsets.UTF_8);
+                buffer.put(buffer.position(), (byte) command.length).put(buffer.position() + 1, command);
+                buffer.position(buffer.position() + History.RECORD_SIZE);
+                if (!buffer.hasRemaining() || i == entries - 1) {
+                    buffer.flip();
+                    out.write(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        history = new History(file);
+        history.lastWithPrefix("");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        history.close();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public List<History.Entry> openAndTail() throws IOException {
+        try (History fresh = new History(file)) {
+            return fresh.tail(20);
+        }
+    }
+
+    @Benchmark
+    public History.Entry lastWithPrefix() throws IOException {
+        return history.lastWithPrefix("cat file-4");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public History.Entry buildIndex() throws IOException {
+        try (History fresh = new History(file)) {
+            return fresh.lastWithPrefix("cat");
+        }
+    }
+
+    @Benchmark
+    public boolean add() throws IOException {
+        return history.add("ls -l " + counter++);
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mv of 64 files back and forth, in operations per second: without a transaction
+ * (opsPerCommit 0), with a commit, so a force of the journal, after every mv, and
+ * with one commit for all 64. The threaded run has eight sessions committing at
+ * once, which share forces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class JournalBenchmark {
+    private static final int FILES = 64;
+
+    @Param({ "0", "1", "64" })
+    public int opsPerCommit;
+
+    private Path root;
+    private Main cli;
+    private PrintStream console;
+    private boolean moved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("journal");
+        System.setProperty("cli.journal", root.getParent().resolve("cli-benchmark-journal").toString());
+        for (int i = 0; i < FILES; i++) {
+            Files.writeString(root.resolve("a" + i), "x");
+        }
+        cli = new Main();
+        cli.cd(root.toString());
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void mv() {
+        String from = moved ? "b" : "a";
+        String to = moved ? "a" : "b";
+        for (int i = 0; i < FILES; i++) {
+            if (opsPerCommit > 0 && i % opsPerCommit == 0) {
+                cli.begin(null);
+            }
+            cli.mv(new String[] { "mv", from + i, to + i });
+            if (opsPerCommit > 0 && (i + 1) % opsPerCommit == 0) {
+                cli.commit(null);
+            }
+        }
+        cli.flush();
+        moved = !moved;
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(FILES)
+    public void mvThreads() {
+        mv();
+    }
+}
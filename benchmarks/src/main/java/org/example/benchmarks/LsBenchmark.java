@@ -0,0 +1,55 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LsBenchmark {
+    @Param({ "10", "10000", "1000000" })
+    public int entries;
+
+    private Path root;
+    private Path dir;
+    private Main cli;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("ls");
+        dir = Fixtures.flatTree(root, "dir", entries);
+        cli = new Main();
+        cli.cd(dir.toString());
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public String[] ls() {
+        return cli.ls();
+    }
+
+    @Benchmark
+    public String[] lsReverse() {
+        return cli.ls("-r");
+    }
+
+    @Benchmark
+    public void lsLong() {
+        cli.lsLong();
+    }
+}
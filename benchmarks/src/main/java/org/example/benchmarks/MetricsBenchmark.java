@@ -0,0 +1,55 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.example.Metrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation around every command: recording one latency on its
+ * own, and a whole pwd command line as the interpreter runs it, tokenizing included.
+ * Run with -prof gc to see that recording allocates nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MetricsBenchmark {
+    private Metrics.Histogram histogram;
+    private Main cli;
+    private PrintStream console;
+    private PrintStream devNull;
+    private long value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws FileNotFoundException {
+        histogram = Metrics.latency("benchmark");
+        cli = new Main();
+        console = System.out;
+        devNull = new PrintStream(new FileOutputStream("/dev/null"));
+        System.setOut(devNull);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cli.flush();
+        System.setOut(console);
+        devNull.close();
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(value++ & 0xfffff);
+    }
+
+    @Benchmark
+    public boolean executePwd() {
+        return cli.execute("pwd");
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.example.Pipeline;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to the first output line and peak heap of a pipeline. Both should stay flat
+ * as the input grows, since stages stream through bounded queues.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class PipelineBenchmark {
+    @Param({ "1048576", "104857600", "1073741824" })
+    public long size;
+
+    private Path root;
+    private Pipeline pipeline;
+    private PrintStream console;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+        public long peakHeapBytes;
+
+        @Setup(Level.Invocation)
+        public void reset() {
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+        }
+
+        void record() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            peakHeapBytes = peak;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("pipeline");
+        Fixtures.textFile(root, "big.log", size);
+        Main cli = new Main();
+        cli.cd(root.toString());
+        pipeline = new Pipeline(cli);
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void firstLine(Heap heap) {
+        pipeline.run("cat big.log | grep ERROR | head -n 1");
+        heap.record();
+    }
+
+    @Benchmark
+    public void wholeFile(Heap heap) {
+        pipeline.run("cat big.log | grep ERROR");
+        heap.record();
+    }
+}
@@ -0,0 +1,46 @@
+package org.example.benchmarks;
+
+import org.example.Tokenizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput in lines per second, next to the split(" ") the interpreter used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TokenizerBenchmark {
+    private static final String[] LINES = {
+            "ls",
+            "cd src/main/java",
+            "mv build/output.log build/archive/output-2024.log",
+            "cat part-1.txt part-2.txt part-3.txt >> combined.txt",
+            "cat \"file with spaces.txt\" 'another one.txt'",
+            "cat big.log | grep ERROR | head -n 20",
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public int tokenize() {
+        int count = 0;
+        for (String line : LINES) {
+            count += Tokenizer.tokenize(line).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public int split() {
+        int count = 0;
+        for (String line : LINES) {
+            count += line.trim().split(" ").length;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the fork-join rm -r and cp -r over a synthetic tree of 100k files, and
+ * of creating as many directories or files with one brace-expanded mkdir or touch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class TreeBenchmark {
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "100000" })
+    public int files;
+
+    private Path root;
+    private Main cli;
+    private PrintStream console;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("tree");
+        Fixtures.nestedTree(root, "tree", files, 32);
+        cli = new Main();
+        cli.setParallelism(threads);
+        cli.cd(root.toString());
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public boolean rmRecursive() {
+        return cli.rm(new String[] { "rm", "-r", "tree" });
+    }
+
+    @Benchmark
+    public boolean cpRecursive() {
+        return cli.cp(new String[] { "cp", "-r", "tree", "copy" });
+    }
+
+    @Benchmark
+    public boolean mkdirBraces() {
+        return cli.execute("mkdir made/{1.." + files / 1000 + "}/{1..1000}");
+    }
+
+    @Benchmark
+    public boolean touchBraces() {
+        return cli.execute("touch made/{1.." + files / 1000 + "}/file-{1..1000}.txt");
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.benchmarks;
+
+import org.example.Main;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of wc and the external sort with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class WcSortBenchmark {
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "1073741824" })
+    public long size;
+
+    private Path root;
+    private Main cli;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.tempDir("wc");
+        Fixtures.textFile(root, "data.txt", size);
+        cli = new Main();
+        cli.setParallelism(threads);
+        cli.cd(root.toString());
+        console = Fixtures.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public boolean wc() {
+        return cli.wc(new String[] { "wc", "data.txt" });
+    }
+
+    @Benchmark
+    public boolean sort() {
+        return cli.sort(new String[] { "sort", "-S", "64M", "data.txt" });
+    }
+}
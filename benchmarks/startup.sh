@@ -0,0 +1,104 @@
+#!/usr/bin/env bash
+# Time to first prompt and peak RSS of the interpreter for each way of starting it.
+#
+#   mvn -Pappcds package -DskipTests    # jar and target/cli.jsa
+#   mvn -Pnative package -DskipTests    # target/cli, needs GraalVM
+#   benchmarks/startup.sh [runs]
+#
+# The interpreter runs under script(1), so it sees a terminal and shows its prompt
+# as it would for a user; the time is until the prompt is printed. The client has
+# no prompt: it is timed until `Client pwd` exits, against a daemon started here.
+# Peak RSS is VmHWM, sampled from /proc while the process runs. Variants whose
+# artifacts are missing are skipped.
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+RUNS=${1:-10}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR=$(ls target/Command-Line-Interpreter-*.jar 2> /dev/null | head -n 1 || true)
+WORK=$(mktemp -d)
+trap 'kill $(jobs -p) 2> /dev/null || true; rm -rf "$WORK"' EXIT
+# A variant that fails to start closes its end of the pipe, that is reported, not fatal
+trap '' PIPE
+
+if [ -z "$JAR" ]; then
+    echo "No jar in target, run mvn package first" >&2
+    exit 1
+fi
+
+now_ms() {
+    echo $(($(date +%s%N) / 1000000))
+}
+
+# Prints "<ms> <peak RSS in KB>" for one run of the command line in $1. The wait
+# loop uses shell builtins only, so on a small machine it does not slow the JVM down
+measure() {
+    local fifo="$WORK/in" out="$WORK/out" tick="$WORK/tick"
+    rm -f "$fifo" "$tick"
+    mkfifo "$fifo" "$tick"
+    : > "$out"
+    # Never written, read -t on it is a sleep that does not fork
+    exec 4<> "$tick"
+    local start pid child="" rss=0 line content
+    start=$(now_ms)
+    script -qfec "$1" /dev/null < "$fifo" > "$out" 2>&1 &
+    pid=$!
+    exec 3> "$fifo"
+    while kill -0 "$pid" 2> /dev/null; do
+        content=""
+        IFS= read -r -d '' content < "$out" || true
+        [[ $content == *'> '* ]] && break
+        if [ -z "$child" ]; then
+            child=$(pgrep -P "$pid" | head -n 1 || true)
+        fi
+        if [ -n "$child" ] && [ -r "/proc/$child/status" ]; then
+            while read -r line; do
+                if [[ $line == VmHWM:* ]]; then
+                    line=${line#VmHWM:}
+                    line=${line% kB}
+                    [ "$line" -gt "$rss" ] && rss=$line
+                fi
+            done < "/proc/$child/status" 2> /dev/null || true
+        fi
+        read -r -t 0.001 -u 4 || true
+    done
+    local elapsed=$(($(now_ms) - start))
+    echo exit >&3 2> /dev/null || true
+    exec 3>&- 4>&-
+    wait "$pid" || true
+    echo "$elapsed $rss"
+}
+
+report() {
+    local name=$1 command=$2
+    local total_ms=0 max_rss=0 ms rss
+    measure "$command" > /dev/null # warms the page cache
+    for _ in $(seq "$RUNS"); do
+        read -r ms rss < <(measure "$command")
+        total_ms=$((total_ms + ms))
+        if [ "$rss" -gt "$max_rss" ]; then
+            max_rss=$rss
+        fi
+    done
+    printf "%-10s %10d ms %10d MB\n" "$name" $((total_ms / RUNS)) $((max_rss / 1024))
+}
+
+C1="-XX:TieredStopAtLevel=1 -XX:+UseSerialGC"
+printf "%-10s %13s %13s\n" variant "first prompt" "peak RSS"
+report jar "$JAVA -jar $JAR"
+report jar-c1 "$JAVA $C1 -jar $JAR"
+if [ -f target/cli.jsa ]; then
+    report appcds "$JAVA -XX:SharedArchiveFile=target/cli.jsa -jar $JAR"
+    report appcds-c1 "$JAVA -XX:SharedArchiveFile=target/cli.jsa $C1 -jar $JAR"
+fi
+if [ -x target/cli ]; then
+    report native target/cli
+fi
+
+SOCKET="$WORK/cli.sock"
+"$JAVA" -Dcli.socket="$SOCKET" -jar "$JAR" --daemon 2> /dev/null &
+for _ in $(seq 100); do
+    [ -S "$SOCKET" ] && break
+    sleep 0.05
+done
+report client "$JAVA -Dcli.socket=$SOCKET $C1 -cp $JAR org.example.Client pwd"
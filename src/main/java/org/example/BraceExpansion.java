@@ -0,0 +1,182 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brace expansion as in the shell: a{b,c}d gives abd and acd, {1..5} counts,
+ * {01..10} keeps the zero padding, {a..e} goes through letters, and {1..10..2}
+ * takes a step. Braces nest, and several in one word give every combination.
+ * Braces that are not a list or a range, like {} or {a}, are left alone.
+ */
+public final class BraceExpansion {
+    // Words one argument may expand to, so a typo cannot exhaust the heap
+    private static final int MAX_WORDS = 1 << 22;
+
+    private BraceExpansion() {
+    }
+
+    // Compiled on the first range, every command line passes through here at startup
+    private static final class Ranges {
+        static final Pattern NUMBERS = Pattern.compile("(-?\\d+)\\.\\.(-?\\d+)(?:\\.\\.(-?\\d+))?");
+        static final Pattern LETTERS = Pattern.compile("([a-zA-Z])\\.\\.([a-zA-Z])(?:\\.\\.(-?\\d+))?");
+    }
+
+    // Expands the unquoted words, quoting a brace keeps it literal
+    public static List<Tokenizer.Token> expand(List<Tokenizer.Token> tokens) {
+        List<Tokenizer.Token> expanded = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            Tokenizer.Token token = tokens.get(i);
+            List<String> words = token.type() == Tokenizer.Type.WORD && !token.quoted()
+                    && token.text().indexOf('{') >= 0 ? expand(token.text()) : null;
+            if (words != null && expanded == null) {
+                expanded = new ArrayList<>(tokens.subList(0, i));
+            }
+            if (words == null) {
+                if (expanded != null) {
+                    expanded.add(token);
+                }
+                continue;
+            }
+            for (String word : words) {
+                expanded.add(new Tokenizer.Token(Tokenizer.Type.WORD, word, false));
+            }
+        }
+        return expanded == null ? tokens : expanded;
+    }
+
+    public static List<String> expand(String word) {
+        for (int open = word.indexOf('{'); open >= 0; open = word.indexOf('{', open + 1)) {
+            int close = matchingBrace(word, open);
+            if (close < 0) {
+                break;
+            }
+            List<String> items = items(word.substring(open + 1, close));
+            if (items == null) {
+                continue;
+            }
+
+            String prefix = word.substring(0, open);
+            List<String> suffixes = expand(word.substring(close + 1));
+            List<String> words = new ArrayList<>();
+            for (String item : items) {
+                for (String middle : expand(item)) {
+                    for (String suffix : suffixes) {
+                        if (words.size() == MAX_WORDS) {
+                            throw new IllegalArgumentException("Brace expansion gives more than " + MAX_WORDS + " words");
+                        }
+                        words.add(prefix + middle + suffix);
+                    }
+                }
+            }
+            return words;
+        }
+        return List.of(word);
+    }
+
+    private static int matchingBrace(String word, int open) {
+        int depth = 0;
+        for (int i = open; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The alternatives inside a pair of braces, null when it is neither a list nor a range
+    private static List<String> items(String body) {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(body.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (!items.isEmpty()) {
+            items.add(body.substring(start));
+            return items;
+        }
+
+        Matcher numbers = Ranges.NUMBERS.matcher(body);
+        if (numbers.matches()) {
+            return numberRange(numbers.group(1), numbers.group(2), numbers.group(3));
+        }
+        Matcher letters = Ranges.LETTERS.matcher(body);
+        if (letters.matches()) {
+            return letterRange(letters.group(1).charAt(0), letters.group(2).charAt(0), letters.group(3));
+        }
+        return null;
+    }
+
+    private static List<String> numberRange(String from, String to, String step) {
+        long first;
+        long last;
+        long increment;
+        try {
+            first = Long.parseLong(from);
+            last = Long.parseLong(to);
+            increment = step == null ? 1 : Math.abs(Long.parseLong(step));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        increment = Math.max(increment, 1);
+        if (Math.abs((last - first) / increment) >= MAX_WORDS) {
+            throw new IllegalArgumentException("Brace expansion gives more than " + MAX_WORDS + " words");
+        }
+        // {01..10} pads every number to the width of the wider end
+        boolean padded = hasLeadingZero(from) || hasLeadingZero(to);
+        int width = padded ? Math.max(from.length(), to.length()) : 0;
+
+        List<String> items = new ArrayList<>();
+        long direction = first <= last ? increment : -increment;
+        for (long n = first; first <= last ? n <= last : n >= last; n += direction) {
+            items.add(padded ? pad(n, width) : Long.toString(n));
+        }
+        return items;
+    }
+
+    private static List<String> letterRange(char from, char to, String step) {
+        int increment;
+        try {
+            increment = step == null ? 1 : Math.max(Math.abs(Integer.parseInt(step)), 1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        List<String> items = new ArrayList<>();
+        int direction = from <= to ? increment : -increment;
+        for (int c = from; from <= to ? c <= to : c >= to; c += direction) {
+            items.add(String.valueOf((char) c));
+        }
+        return items;
+    }
+
+    private static boolean hasLeadingZero(String number) {
+        String digits = number.startsWith("-") ? number.substring(1) : number;
+        return digits.length() > 1 && digits.charAt(0) == '0';
+    }
+
+    private static String pad(long n, int width) {
+        String digits = Long.toString(Math.abs(n));
+        StringBuilder padded = new StringBuilder(width);
+        if (n < 0) {
+            padded.append('-');
+        }
+        for (int i = padded.length() + digits.length(); i < width; i++) {
+            padded.append('0');
+        }
+        return padded.append(digits).toString();
+    }
+}
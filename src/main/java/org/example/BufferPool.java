@@ -0,0 +1,40 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers of 1 MB shared by the commands that copy file bytes. Allocating a
+ * direct buffer zeroes it and registers a cleaner, which costs more than a small
+ * cat does; a few buffers are kept for the next command instead.
+ */
+final class BufferPool {
+    static final int BUFFER_SIZE = 1 << 20;
+    // Buffers kept once released, enough for a few concurrent jobs and sessions
+    private static final int MAX_IDLE = 8;
+
+    private static final Queue<ByteBuffer> IDLE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger idleCount = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    static ByteBuffer take() {
+        ByteBuffer buffer = IDLE.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        idleCount.decrementAndGet();
+        return buffer.clear();
+    }
+
+    static void release(ByteBuffer buffer) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            IDLE.add(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
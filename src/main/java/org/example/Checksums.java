@@ -0,0 +1,239 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashing for sha256sum, md5sum and dedupe. Files are read through a direct buffer
+ * per worker, so the bytes go from the kernel to the digest without passing through
+ * the heap, and the files of one call are spread over a pool of threads. Results go
+ * through the HashCache, a file that did not change is not read again.
+ *
+ * Duplicates are found in rounds that each read less than the next: files are
+ * grouped by size, files sharing a size by a hash of their first and last 64 KB,
+ * and only files that still match are hashed in full.
+ */
+public class Checksums {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Bytes hashed at each end of a file for the partial hash
+    static final int PARTIAL_SIZE = 64 << 10;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    public record Result(Path file, byte[] hash, String error) {
+    }
+
+    // Files with the same contents, sorted by path
+    public record Group(long size, List<Path> files) {
+    }
+
+    private record Candidate(Path file, BasicFileAttributes attrs) {
+    }
+
+    private final int parallelism;
+    private final HashCache cache;
+    private final AtomicLong processed;
+
+    public Checksums(int parallelism, HashCache cache, AtomicLong processed) {
+        this.parallelism = parallelism;
+        this.cache = cache;
+        this.processed = processed;
+    }
+
+    public static String hex(byte[] hash) {
+        return HexFormat.of().formatHex(hash);
+    }
+
+    // Hashes of the files in the order given, a file that cannot be read has an error instead
+    public List<Result> hashAll(List<Path> files, HashCache.Kind kind) {
+        return run(files, file -> {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attrs.isDirectory()) {
+                    return new Result(file, null, "Is a directory");
+                }
+                return new Result(file, hash(file, attrs, kind), null);
+            } catch (NoSuchFileException e) {
+                return new Result(file, null, "No such file or directory");
+            } catch (IOException e) {
+                return new Result(file, null, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Groups of identical files below root, largest files first, each group sorted by
+     * path. Empty files are left out, and so are further hard links to a file already
+     * seen, since they share its storage. Files that cannot be read are put in errors.
+     */
+    public List<Group> duplicates(Path root, Map<Path, String> errors) throws IOException {
+        Map<Long, List<Candidate>> bySize = new HashMap<>();
+        Set<Object> inodes = new HashSet<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Object key = attrs.fileKey();
+                if (attrs.isRegularFile() && attrs.size() > 0 && (key == null || inodes.add(key))) {
+                    bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(new Candidate(file, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                errors.put(file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<Candidate> sameSize = new ArrayList<>();
+        for (List<Candidate> group : bySize.values()) {
+            if (group.size() > 1) {
+                sameSize.addAll(group);
+            }
+        }
+        List<List<Candidate>> samePartial = group(sameSize, HashCache.Kind.PARTIAL, errors);
+
+        List<Candidate> toHash = new ArrayList<>();
+        List<List<Candidate>> identical = new ArrayList<>();
+        for (List<Candidate> group : samePartial) {
+            // Up to twice PARTIAL_SIZE the partial hash already covered every byte
+            if (group.get(0).attrs().size() <= 2L * PARTIAL_SIZE) {
+                identical.add(group);
+            } else {
+                toHash.addAll(group);
+            }
+        }
+        identical.addAll(group(toHash, HashCache.Kind.SHA256, errors));
+
+        identical.sort(Comparator.comparingLong((List<Candidate> group) -> group.get(0).attrs().size()).reversed());
+        List<Group> result = new ArrayList<>();
+        for (List<Candidate> group : identical) {
+            List<Path> paths = new ArrayList<>();
+            for (Candidate candidate : group) {
+                paths.add(candidate.file());
+            }
+            Collections.sort(paths);
+            result.add(new Group(group.get(0).attrs().size(), paths));
+        }
+        return result;
+    }
+
+    // Files with the same size and hash, in groups of two or more
+    private List<List<Candidate>> group(List<Candidate> candidates, HashCache.Kind kind, Map<Path, String> errors) {
+        List<Result> hashes = run(candidates, candidate -> {
+            try {
+                return new Result(candidate.file(), hash(candidate.file(), candidate.attrs(), kind), null);
+            } catch (IOException e) {
+                return new Result(candidate.file(), null, e.getMessage());
+            }
+        });
+        Map<String, List<Candidate>> groups = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Result result = hashes.get(i);
+            if (result.error() != null) {
+                errors.put(result.file(), result.error());
+                continue;
+            }
+            String key = candidates.get(i).attrs().size() + ":" + hex(result.hash());
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(candidates.get(i));
+        }
+        List<List<Candidate>> duplicates = new ArrayList<>();
+        for (List<Candidate> group : groups.values()) {
+            if (group.size() > 1) {
+                duplicates.add(group);
+            }
+        }
+        return duplicates;
+    }
+
+    private byte[] hash(Path file, BasicFileAttributes attrs, HashCache.Kind kind) throws IOException {
+        byte[] cached = cache.get(file, attrs, kind);
+        if (cached != null) {
+            return cached;
+        }
+        MessageDigest digest = digest(kind);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (kind == HashCache.Kind.PARTIAL && size > 2L * PARTIAL_SIZE) {
+                update(digest, channel, 0, PARTIAL_SIZE);
+                update(digest, channel, size - PARTIAL_SIZE, size);
+            } else {
+                update(digest, channel, 0, size);
+            }
+        }
+        byte[] hash = digest.digest();
+        cache.put(file, attrs, kind, hash);
+        return hash;
+    }
+
+    private void update(MessageDigest digest, FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        long position = from;
+        // The channel is interruptible, a killed job stops at the next read
+        while (position < to) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+            processed.addAndGet(read);
+            Metrics.add(Metrics.Counter.BYTES_READ, read);
+        }
+    }
+
+    private static MessageDigest digest(HashCache.Kind kind) {
+        try {
+            return MessageDigest.getInstance(kind == HashCache.Kind.MD5 ? "MD5" : "SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to provide both
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Task<T> {
+        Result run(T item);
+    }
+
+    // Runs the task on every item on the pool, results in the order of the items
+    private <T> List<Result> run(List<T> items, Task<T> task) {
+        if (items.size() < 2 || parallelism < 2) {
+            List<Result> results = new ArrayList<>(items.size());
+            for (T item : items) {
+                results.add(task.run(item));
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, items.size()));
+        try {
+            List<Future<Result>> futures = new ArrayList<>(items.size());
+            for (T item : items) {
+                futures.add(pool.submit(() -> task.run(item)));
+            }
+            List<Result> results = new ArrayList<>(items.size());
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("hashing interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client of the Daemon. With arguments they are sent as the words of one command,
+ * as the shell split them, so a quoted "my file.txt" or '>' stays one plain word;
+ * without, stdin is sent as a script. Output is written back as the
+ * daemon sends it. When no daemon is listening, the command runs in this process.
+ *
+ * Only this class and the JDK are loaded until the fallback is needed, so the
+ * client starts about as fast as the JVM does.
+ */
+public final class Client {
+    private Client() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] words = args.length > 0 ? args : null;
+        Path directory = Paths.get(System.getProperty("user.dir"));
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        OutputStream stderr = new FileOutputStream(FileDescriptor.err);
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Daemon.defaultSocket()));
+        } catch (IOException e) {
+            runLocally(words);
+            return;
+        }
+        run(channel, directory, words, System.in, stdout, stderr);
+    }
+
+    // Sends the request and copies the reply until the exit frame
+    public static void run(SocketChannel channel, Path directory, String[] words, InputStream stdin,
+            OutputStream stdout, OutputStream stderr) throws IOException {
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            Daemon.writeString(request, directory.toAbsolutePath().toString());
+            request.writeInt(words != null ? words.length : Daemon.SCRIPT);
+            if (words != null) {
+                for (String word : words) {
+                    Daemon.writeString(request, word);
+                }
+            }
+            request.flush();
+            if (words == null) {
+                // The script is sent while the output comes back, a long script never fills both buffers
+                Thread.ofVirtual().start(() -> sendScript(channel, request, stdin));
+            }
+
+            DataInputStream reply = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int type = reply.readUnsignedByte();
+                int length = reply.readInt();
+                if (type == Daemon.EXIT) {
+                    return;
+                }
+                OutputStream target = type == Daemon.STDERR ? stderr : stdout;
+                while (length > 0) {
+                    int read = reply.read(buffer, 0, Math.min(buffer.length, length));
+                    if (read < 0) {
+                        throw new EOFException("The daemon closed the connection");
+                    }
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+            }
+        }
+    }
+
+    private static void sendScript(SocketChannel channel, OutputStream request, InputStream stdin) {
+        try {
+            stdin.transferTo(request);
+            request.flush();
+            channel.shutdownOutput();
+        } catch (IOException e) {
+            // The daemon stopped reading, its reply says why
+        }
+    }
+
+    private static void runLocally(String[] words) throws IOException {
+        Main cli = new Main();
+        if (words == null) {
+            cli.runBatch(new BufferedReader(new InputStreamReader(System.in)));
+            return;
+        }
+        cli.execute(words);
+        cli.awaitJobs();
+        cli.flush();
+    }
+}
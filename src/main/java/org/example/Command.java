@@ -0,0 +1,12 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * A built-in command. Receives the full argv, including the command name at index 0,
+ * the same way the interpreter's methods like mv and rm take it.
+ */
+@FunctionalInterface
+public interface Command {
+    void execute(Main cli, String[] command) throws IOException;
+}
@@ -0,0 +1,29 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one command run by the interpreter, emitted with --jfr. The bytes
+ * are those counted in Metrics while the command ran, background jobs included.
+ */
+@Name("org.example.Command")
+@Label("Command")
+@Category("CLI")
+@Description("A command run by the interpreter")
+final class CommandEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+}
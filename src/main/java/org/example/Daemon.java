@@ -0,0 +1,187 @@
+package org.example;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Keeps the interpreter running behind a Unix domain socket, so a Client pays for
+ * the JVM and class loading once instead of on every call. Every connection is a
+ * session on a virtual thread with its own interpreter, started in the client's
+ * directory, so a cd in one session is not seen by the others.
+ *
+ * A request is the client's directory and either the words of one command, run as
+ * words without operators or patterns, or a count of -1, in which case the rest of
+ * the stream is the client's stdin, run as a script. Strings are sent as a length and
+ * their UTF-8 bytes, so no command line is too long for the protocol. The
+ * reply is a sequence of frames: a type byte, a length and the bytes, for stdout
+ * and stderr as the session flushes them, ending with an empty exit frame. There is
+ * no exit status to carry, a script run locally ends with 0 whatever failed in it.
+ */
+public class Daemon implements Closeable {
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    static final int EXIT = 0;
+    // Word count of a request whose script follows
+    static final int SCRIPT = -1;
+
+    private final Path socket;
+    private ServerSocketChannel server;
+
+    public Daemon(Path socket) {
+        this.socket = socket;
+    }
+
+    // ~/.cli.sock, or the file named by the cli.socket property
+    public static Path defaultSocket() {
+        String name = System.getProperty("cli.socket");
+        return name != null ? Paths.get(name) : Paths.get(System.getProperty("user.home"), ".cli.sock");
+    }
+
+    public void bind() throws IOException {
+        if (Files.exists(socket)) {
+            if (listening(socket)) {
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            // Left by a daemon that did not shut down
+            Files.delete(socket);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        // Whoever can connect can run commands as this user. The socket is bound with the
+        // umask's permissions, so it is bound in a directory only this user can enter and
+        // moved into place once it is rw-------
+        Path directory;
+        try {
+            directory = Files.createTempDirectory(socket.toAbsolutePath().getParent(), ".cli-sock",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the directory's permissions apply
+            server.bind(UnixDomainSocketAddress.of(socket));
+            return;
+        }
+        Path bound = directory.resolve(socket.getFileName());
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        } finally {
+            // The socket is only left there when it could not be moved
+            Files.deleteIfExists(bound);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // Accepts clients until closed, each one on its own virtual thread
+    public void serve() throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            Thread.ofVirtual().name("session").start(() -> session(client));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) {
+            server.close();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private static boolean listening(Path socket) {
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return probe.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void session(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            Path directory = Paths.get(readString(in));
+            int count = in.readInt();
+            if (count < SCRIPT) {
+                throw new IOException("Bad word count " + count);
+            }
+            String[] words = count == SCRIPT ? null : new String[count];
+            for (int i = 0; i < count; i++) {
+                words[i] = readString(in);
+            }
+
+            Main cli = new Main(directory, OutputSink.to(new FrameStream(frames, STDOUT)),
+                    OutputSink.to(new FrameStream(frames, STDERR)));
+            if (words != null) {
+                cli.execute(words);
+                cli.awaitJobs();
+                cli.flush();
+            } else {
+                cli.runBatch(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            }
+            synchronized (frames) {
+                // Its length, the frame has no bytes
+                frames.writeByte(EXIT);
+                frames.writeInt(0);
+                frames.flush();
+            }
+        } catch (IOException e) {
+            // The client went away, nobody is left to tell
+        }
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Output of a session, each write becomes one frame
+    private static final class FrameStream extends OutputStream {
+        private final DataOutputStream frames;
+        private final int type;
+
+        FrameStream(DataOutputStream frames, int type) {
+            this.frames = frames;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (frames) {
+                frames.writeByte(type);
+                frames.writeInt(length);
+                frames.write(bytes, offset, length);
+                frames.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Picks the reader for a compressed input by its magic bytes, so that cat and the
+ * pipeline read .gz and .zst files as their contents. The zstd reader, and with it
+ * zstd-jni's native library, is only loaded by the first zstd file.
+ */
+final class Decompression {
+    private Decompression() {
+    }
+
+    // The decoded contents of the file, or null when it is not compressed
+    static ReadableByteChannel open(FileChannel in) throws IOException {
+        if (GzipReader.isGzip(in)) {
+            return new GzipReader(in);
+        }
+        if (ZstdReader.isZstd(in)) {
+            try {
+                return new ZstdReader(in);
+            } catch (LinkageError e) {
+                // The native library could not be unpacked or loaded, e.g. a noexec tmpdir or
+                // an unsupported platform; every later zstd file fails the same way
+                throw new UnavailableException("zstd");
+            }
+        }
+        return null;
+    }
+
+    // A format the file is in but this process cannot decode
+    static final class UnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(String format) {
+            super(format + " not available");
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Line diff of two files, printed in the normal diff format. The head and tail the
+ * files share are found by comparing bytes, as cmp does, and never held in memory;
+ * of the lines between, only a 64-bit hash and the offset are kept, 16 bytes a line
+ * whatever its length. The edit script comes from Myers' algorithm in its linear
+ * space form: the middle snake splits the problem in two, so besides the hashes it
+ * needs two arrays of N + M ints. Lines are compared by hash, equal hashes of
+ * different lines are taken as equal, one chance in 2^64 per pair.
+ */
+final class Diff {
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channelA;
+    private final FileChannel channelB;
+    private final OutputSink out;
+    private final AtomicLong processed;
+    // Lines of the shared head, the numbers printed count from there
+    private long headLines;
+    private Lines a;
+    private Lines b;
+    private boolean[] changedA;
+    private boolean[] changedB;
+    private int[] forward;
+    private int[] backward;
+
+    Diff(FileChannel a, FileChannel b, OutputSink out, AtomicLong processed) {
+        this.channelA = a;
+        this.channelB = b;
+        this.out = out;
+        this.processed = processed;
+    }
+
+    // False when the files are the same, nothing is printed then
+    boolean run() throws IOException {
+        long sizeA = channelA.size();
+        long sizeB = channelB.size();
+        long start;
+        long endA;
+        long endB;
+        FileComparison comparison = new FileComparison(channelA, channelB, processed);
+        try {
+            long min = Math.min(sizeA, sizeB);
+            long first = comparison.mismatch(0, min);
+            if (first < 0 && sizeA == sizeB) {
+                return false;
+            }
+            // No newline lies between the line start and the mismatch, so the count stands
+            start = lineStart(channelA, first < 0 ? min : first);
+            headLines = comparison.lines();
+            long tail = comparison.commonTail(min - start);
+            endA = lineEnd(sizeA - tail, sizeB - sizeA, start, sizeA);
+            endB = endA + sizeB - sizeA;
+        } finally {
+            comparison.release();
+        }
+
+        a = Lines.read(channelA, start, endA, processed);
+        b = Lines.read(channelB, start, endB, processed);
+        changedA = new boolean[a.count];
+        changedB = new boolean[b.count];
+        forward = new int[a.count + b.count + 3];
+        backward = new int[a.count + b.count + 3];
+        compare(0, a.count, 0, b.count);
+        forward = null;
+        backward = null;
+        print();
+        return true;
+    }
+
+    // The start of the line holding offset, in the head both files share
+    private static long lineStart(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        for (long end = offset; end > 0;) {
+            long from = Math.max(0, end - IO_BUFFER_SIZE);
+            buffer.clear().limit((int) (end - from));
+            for (int i = readFully(channel, buffer, from) - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            end = from;
+        }
+        return 0;
+    }
+
+    /**
+     * Where the shared tail's lines begin in the first file: the first offset from
+     * tailStart on that starts a line in both files. shift is the second file's size
+     * less the first's. Past tailStart the bytes are the same in both, so only
+     * tailStart itself needs a look at both files.
+     */
+    private long lineEnd(long tailStart, long shift, long start, long sizeA) throws IOException {
+        if (startsLine(channelA, tailStart, start) && startsLine(channelB, tailStart + shift, start)) {
+            return tailStart;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        for (long from = tailStart; from < sizeA; from += buffer.limit()) {
+            buffer.clear();
+            if (readFully(channelA, buffer, from) == 0) {
+                break;
+            }
+            buffer.flip();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+        }
+        return sizeA;
+    }
+
+    private static boolean startsLine(FileChannel channel, long offset, long start) throws IOException {
+        if (offset == start) {
+            // The head ends with a whole line
+            return true;
+        }
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        return channel.read(previous, offset - 1) == 1 && previous.get(0) == '\n';
+    }
+
+    /**
+     * Marks the lines of a[xoff, xlim) and b[yoff, ylim) that are not in their longest
+     * common subsequence: the shared head and tail are skipped, and what remains is
+     * split at the middle snake and each half compared in turn.
+     */
+    private void compare(int xoff, int xlim, int yoff, int ylim) {
+        while (xoff < xlim && yoff < ylim && a.hashes[xoff] == b.hashes[yoff]) {
+            xoff++;
+            yoff++;
+        }
+        while (xlim > xoff && ylim > yoff && a.hashes[xlim - 1] == b.hashes[ylim - 1]) {
+            xlim--;
+            ylim--;
+        }
+        if (xoff == xlim) {
+            Arrays.fill(changedB, yoff, ylim, true);
+        } else if (yoff == ylim) {
+            Arrays.fill(changedA, xoff, xlim, true);
+        } else {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            long split = middleSnake(xoff, xlim, yoff, ylim);
+            int xmid = (int) (split >>> 32);
+            int ymid = (int) split;
+            compare(xoff, xmid, yoff, ymid);
+            compare(xmid, xlim, ymid, ylim);
+        }
+    }
+
+    /**
+     * Runs the search from both corners at once, one edit further each round, until
+     * the furthest reaching paths on a diagonal meet. Returns the meeting point, x in
+     * the high and y in the low half. The arrays are indexed by diagonal x - y, offset
+     * so that every diagonal of the whole problem fits.
+     */
+    private long middleSnake(int xoff, int xlim, int yoff, int ylim) {
+        long[] x = a.hashes;
+        long[] y = b.hashes;
+        int offset = b.count + 1;
+        int dmin = xoff - ylim;
+        int dmax = xlim - yoff;
+        int fmid = xoff - yoff;
+        int bmid = xlim - ylim;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        forward[fmid + offset] = xoff;
+        backward[bmid + offset] = xlim;
+        while (true) {
+            // Widen the diagonals searched forward by one each side, while they are in the box
+            if (fmin > dmin) {
+                forward[--fmin - 1 + offset] = -1;
+            } else {
+                fmin++;
+            }
+            if (fmax < dmax) {
+                forward[++fmax + 1 + offset] = -1;
+            } else {
+                fmax--;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int low = forward[d - 1 + offset];
+                int high = forward[d + 1 + offset];
+                int i = low < high ? high : low + 1;
+                int j = i - d;
+                while (i < xlim && j < ylim && x[i] == y[j]) {
+                    i++;
+                    j++;
+                }
+                forward[d + offset] = i;
+                if (odd && bmin <= d && d <= bmax && backward[d + offset] <= i) {
+                    return ((long) i << 32) | j;
+                }
+            }
+
+            if (bmin > dmin) {
+                backward[--bmin - 1 + offset] = Integer.MAX_VALUE;
+            } else {
+                bmin++;
+            }
+            if (bmax < dmax) {
+                backward[++bmax + 1 + offset] = Integer.MAX_VALUE;
+            } else {
+                bmax--;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int low = backward[d - 1 + offset];
+                int high = backward[d + 1 + offset];
+                int i = low < high ? low : high - 1;
+                int j = i - d;
+                while (i > xoff && j > yoff && x[i - 1] == y[j - 1]) {
+                    i--;
+                    j--;
+                }
+                backward[d + offset] = i;
+                if (!odd && fmin <= d && d <= fmax && i <= forward[d + offset]) {
+                    return ((long) i << 32) | j;
+                }
+            }
+        }
+    }
+
+    // Each run of changed lines is one hunk: lines only in a are deleted, only in b added
+    private void print() throws IOException {
+        int i = 0;
+        int j = 0;
+        while (i < a.count || j < b.count) {
+            if (i < a.count && j < b.count && !changedA[i] && !changedB[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int i0 = i;
+            int j0 = j;
+            while (i < a.count && changedA[i]) {
+                i++;
+            }
+            while (j < b.count && changedB[j]) {
+                j++;
+            }
+            char kind = i0 == i ? 'a' : j0 == j ? 'd' : 'c';
+            String left = kind == 'a' ? String.valueOf(headLines + i0) : range(i0, i);
+            String right = kind == 'd' ? String.valueOf(headLines + j0) : range(j0, j);
+            out.println(left + kind + right);
+            for (int k = i0; k < i; k++) {
+                printLine("< ", channelA, a, k);
+            }
+            if (kind == 'c') {
+                out.println("---");
+            }
+            for (int k = j0; k < j; k++) {
+                printLine("> ", channelB, b, k);
+            }
+        }
+    }
+
+    private String range(int from, int to) {
+        return to - from == 1 ? String.valueOf(headLines + to) : (headLines + from + 1) + "," + (headLines + to);
+    }
+
+    private void printLine(String prefix, FileChannel channel, Lines lines, int index) throws IOException {
+        long from = lines.starts[index];
+        long to = index + 1 < lines.count ? lines.starts[index + 1] : lines.end;
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(to - from, Integer.MAX_VALUE - 8));
+        int length = readFully(channel, bytes, from);
+        boolean newline = length > 0 && bytes.get(length - 1) == '\n';
+        out.println(prefix + new String(bytes.array(), 0, newline ? length - 1 : length, Charset.defaultCharset()));
+        if (!newline) {
+            out.println("\\ No newline at end of file");
+        }
+    }
+
+    // Reads from position until the buffer is full or the file ends, returns the bytes read
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) {
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    // The lines of a region of a file, as hashes and start offsets
+    private static final class Lines {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        long[] hashes = new long[1024];
+        long[] starts = new long[1024];
+        int count;
+        long end;
+
+        // FNV-1a over each line, its newline included, so a last line without one differs
+        static Lines read(FileChannel channel, long from, long end, AtomicLong processed) throws IOException {
+            Lines lines = new Lines();
+            lines.end = end;
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            long hash = FNV_OFFSET;
+            long lineStart = from;
+            for (long position = from; position < end;) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+                buffer.clear().limit((int) Math.min(IO_BUFFER_SIZE, end - position));
+                int n = readFully(channel, buffer, position);
+                if (n == 0) {
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+                    if (bytes[i] == '\n') {
+                        lines.add(hash, lineStart);
+                        hash = FNV_OFFSET;
+                        lineStart = position + i + 1;
+                    }
+                }
+                position += n;
+            }
+            if (lineStart < end) {
+                lines.add(hash, lineStart);
+            }
+            processed.addAndGet(end - from);
+            Metrics.add(Metrics.Counter.BYTES_READ, end - from);
+            return lines;
+        }
+
+        private void add(long hash, long start) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            hashes[count] = hash;
+            starts[count++] = start;
+        }
+    }
+}
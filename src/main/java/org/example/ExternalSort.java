@@ -0,0 +1,144 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sorts the lines of files that may not fit in memory. Lines are read until the
+ * memory budget is used up, that run is sorted with a parallel sort and written to
+ * a temporary file, and the runs are then merged with a priority queue. Input that
+ * fits in the budget is sorted in memory and never touches the disk.
+ */
+public class ExternalSort {
+    // Runs merged at once, more runs are first merged into bigger runs
+    private static final int MAX_MERGE = 128;
+    // Rough heap cost of a line on top of its characters
+    private static final int LINE_OVERHEAD = 64;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final long memoryBudget;
+    private final int parallelism;
+    private final Comparator<String> order;
+    private final List<Path> runs = new ArrayList<>();
+    // On the inputs' file system, so sorting in memory spills to memory
+    private Path temporary;
+
+    public ExternalSort(long memoryBudget, int parallelism, boolean reverse) {
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+        this.order = reverse ? Comparator.reverseOrder() : Comparator.naturalOrder();
+    }
+
+    public void sort(List<Path> inputs, OutputSink out) throws IOException {
+        temporary = FileSystemBackends.tempDirectory(inputs.get(0).getFileSystem());
+        try {
+            List<String> lines = new ArrayList<>();
+            long used = 0;
+            for (Path input : inputs) {
+                try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.add(line);
+                        used += LINE_OVERHEAD + 2L * line.length();
+                        if (used >= memoryBudget) {
+                            spill(lines);
+                            used = 0;
+                        }
+                    }
+                }
+            }
+
+            if (runs.isEmpty()) {
+                for (String line : sorted(lines)) {
+                    out.println(line);
+                }
+                return;
+            }
+            if (!lines.isEmpty()) {
+                spill(lines);
+            }
+            while (runs.size() > MAX_MERGE) {
+                List<Path> group = new ArrayList<>(runs.subList(0, MAX_MERGE));
+                runs.subList(0, MAX_MERGE).clear();
+                Path merged = Files.createTempFile(temporary, "cli-sort", ".run");
+                runs.add(merged);
+                try (BufferedWriter writer = Files.newBufferedWriter(merged, StandardCharsets.UTF_8)) {
+                    merge(group, line -> {
+                        writer.write(line);
+                        writer.newLine();
+                    });
+                }
+                for (Path run : group) {
+                    Files.deleteIfExists(run);
+                }
+            }
+            merge(runs, out::println);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private String[] sorted(List<String> lines) {
+        String[] array = lines.toArray(new String[0]);
+        // parallelSort forks into the pool it is called from
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            pool.submit(() -> Arrays.parallelSort(array, order)).join();
+        }
+        return array;
+    }
+
+    private void spill(List<String> lines) throws IOException {
+        String[] array = sorted(lines);
+        lines.clear();
+        Path run = Files.createTempFile(temporary, "cli-sort", ".run");
+        runs.add(run);
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(run), StandardCharsets.UTF_8), IO_BUFFER_SIZE)) {
+            for (String line : array) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    private interface LineSink {
+        void accept(String line) throws IOException;
+    }
+
+    private record Head(String line, BufferedReader reader) {
+    }
+
+    private void merge(List<Path> group, LineSink sink) throws IOException {
+        PriorityQueue<Head> heads = new PriorityQueue<>(group.size(), (a, b) -> order.compare(a.line(), b.line()));
+        List<BufferedReader> readers = new ArrayList<>();
+        try {
+            for (Path run : group) {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(Files.newInputStream(run), StandardCharsets.UTF_8), IO_BUFFER_SIZE);
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) {
+                    heads.add(new Head(line, reader));
+                }
+            }
+            Head head;
+            while ((head = heads.poll()) != null) {
+                sink.accept(head.line());
+                String next = head.reader().readLine();
+                if (next != null) {
+                    heads.add(new Head(next, head.reader()));
+                }
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
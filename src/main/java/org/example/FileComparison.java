@@ -0,0 +1,176 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte comparison for cmp, and for the head and tail that diff skips because both
+ * files share them. Blocks of both files are mapped and compared with
+ * ByteBuffer.mismatch, which compares many bytes per instruction; the first block
+ * that differs ends the scan. A file system that cannot map, the in-memory one, is
+ * read block by block into a pooled buffer instead.
+ */
+final class FileComparison {
+    // Mapped at once; large, so a multi-GB file takes few mappings
+    static final int BLOCK = 64 << 20;
+    // Compared at once from the end, so the last difference is searched in little
+    private static final int TAIL_STEP = 4 << 10;
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final Window a;
+    private final Window b;
+    private final AtomicLong processed;
+    private final long[] words = new long[1024];
+    private long lines;
+
+    FileComparison(FileChannel a, FileChannel b, AtomicLong processed) {
+        this.a = new Window(a);
+        this.b = new Window(b);
+        this.processed = processed;
+    }
+
+    /**
+     * The first offset below end where the files differ, -1 when they are the same up
+     * to end. The newlines before it are counted on the way, while each block is
+     * mapped, rather than in a second pass that would map and fault it in again.
+     */
+    long mismatch(long from, long end) throws IOException {
+        lines = 0;
+        for (long position = from; position < end;) {
+            checkInterrupted();
+            int length = (int) Math.min(BLOCK, end - position);
+            ByteBuffer x = a.get(position, length);
+            ByteBuffer y = b.get(position, length);
+            int n = Math.min(x.remaining(), y.remaining());
+            int at = x.limit(n).mismatch(y.limit(n));
+            lines += newlines(x, at < 0 ? n : at);
+            read(2L * (at < 0 ? n : at));
+            if (at >= 0) {
+                return position + at;
+            }
+            position += n;
+        }
+        return -1;
+    }
+
+    // Newlines of the first file that mismatch passed, from its from to the offset it returned
+    long lines() {
+        return lines;
+    }
+
+    // The number of bytes, at most max, both files end with
+    long commonTail(long max) throws IOException {
+        long sizeA = a.channel.size();
+        long sizeB = b.channel.size();
+        long common = 0;
+        while (common < max) {
+            checkInterrupted();
+            int length = (int) Math.min(BLOCK, max - common);
+            ByteBuffer x = a.get(sizeA - common - length, length);
+            ByteBuffer y = b.get(sizeB - common - length, length);
+            int n = Math.min(x.remaining(), y.remaining());
+            // A short read returned the start of the block, the end is what is wanted
+            if (n < length) {
+                x = a.get(sizeA - common - n, n);
+                y = b.get(sizeB - common - n, n);
+                n = Math.min(x.remaining(), y.remaining());
+            }
+            read(2L * n);
+            for (int end = n; end > 0; end -= TAIL_STEP) {
+                int start = Math.max(0, end - TAIL_STEP);
+                if (x.slice(start, end - start).mismatch(y.slice(start, end - start)) >= 0) {
+                    int i = end - 1;
+                    while (x.get(i) == y.get(i)) {
+                        i--;
+                    }
+                    return common + (n - 1 - i);
+                }
+            }
+            common += n;
+        }
+        return max;
+    }
+
+    /**
+     * Newlines in the first n bytes of the buffer, eight bytes at a time. The words are
+     * copied out in bulk first: getLong on a mapped buffer checks its bounds and its
+     * mapping on every call, and counts less than half as fast.
+     */
+    private long newlines(ByteBuffer x, int n) {
+        long lines = 0;
+        int whole = n - n % Long.BYTES;
+        LongBuffer view = x.slice(0, whole).order(ByteOrder.nativeOrder()).asLongBuffer();
+        while (view.hasRemaining()) {
+            int count = Math.min(words.length, view.remaining());
+            view.get(words, 0, count);
+            for (int i = 0; i < count; i++) {
+                long t = words[i] ^ NEWLINES;
+                // The high bit of each byte of t that is zero, exact as no byte carries into the next
+                lines += Long.bitCount(~(((t & LOW_BITS) + LOW_BITS) | t | LOW_BITS));
+            }
+        }
+        for (int i = whole; i < n; i++) {
+            if (x.get(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    void release() {
+        a.release();
+        b.release();
+    }
+
+    private void read(long bytes) {
+        processed.addAndGet(bytes);
+        Metrics.add(Metrics.Counter.BYTES_READ, bytes);
+    }
+
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+    }
+
+    // A view of one file: a mapping where the file system can map, a pooled buffer read into where not
+    private static final class Window {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+
+        Window(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // Up to length bytes from position, fewer only when read into the buffer
+        ByteBuffer get(long position, int length) throws IOException {
+            if (buffer == null) {
+                try {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                } catch (UnsupportedOperationException e) {
+                    buffer = BufferPool.take();
+                }
+            }
+            buffer.clear().limit(Math.min(length, buffer.capacity()));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.flip();
+        }
+
+        void release() {
+            if (buffer != null) {
+                BufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The file systems a session runs on, chosen with --fs: disk, the default, or memory,
+ * a Jimfs file system that lives as long as the process. Everything the commands
+ * touch is resolved against the session's directory, so it stays on one of them. The
+ * in-memory one starts in /work and keeps its own hash cache and journal under /home.
+ */
+public final class FileSystemBackends {
+    private FileSystemBackends() {
+    }
+
+    public static FileSystem open(String name) throws IOException {
+        return switch (name) {
+            case "disk" -> FileSystems.getDefault();
+            case "memory" -> memory();
+            default -> throw new IllegalArgumentException("unknown file system: " + name + ", use disk or memory");
+        };
+    }
+
+    // A new, empty file system with POSIX paths and attributes, whatever the platform
+    public static FileSystem memory() throws IOException {
+        FileSystem fileSystem = InMemory.create();
+        Files.createDirectories(fileSystem.getPath("/work"));
+        Files.createDirectories(fileSystem.getPath("/tmp"));
+        Files.createDirectories(fileSystem.getPath("/home"));
+        return fileSystem;
+    }
+
+    public static boolean isDisk(FileSystem fileSystem) {
+        return fileSystem == FileSystems.getDefault();
+    }
+
+    // Where a session starts: the working directory of the process on disk
+    public static Path workingDirectory(FileSystem fileSystem) {
+        return isDisk(fileSystem) ? Paths.get(System.getProperty("user.dir")) : fileSystem.getPath("/work");
+    }
+
+    // For files the commands keep between runs, the hash cache and the journal
+    public static Path home(FileSystem fileSystem) {
+        return isDisk(fileSystem) ? Paths.get(System.getProperty("user.home")) : fileSystem.getPath("/home");
+    }
+
+    // For the runs sort spills
+    public static Path tempDirectory(FileSystem fileSystem) {
+        return isDisk(fileSystem) ? Paths.get(System.getProperty("java.io.tmpdir")) : fileSystem.getPath("/tmp");
+    }
+
+    // Loaded by the first memory file system, a session on disk never loads Jimfs
+    private static final class InMemory {
+        static FileSystem create() {
+            return Jimfs.newFileSystem(Configuration.unix()
+                    .toBuilder()
+                    .setWorkingDirectory("/work")
+                    .setAttributeViews("basic", "owner", "posix", "unix")
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recursive delete and copy of directory trees, and bulk creation of directories and
+ * files, on a work-stealing pool. Sibling subtrees are processed in parallel, and
+ * errors are collected per path instead of stopping the whole operation.
+ */
+public class FileTrees {
+    // Files of one directory handled by a single task
+    private static final int FILE_BATCH = 256;
+
+    private final int parallelism;
+    private final Map<Path, String> errors = new ConcurrentSkipListMap<>();
+    private final AtomicInteger createdDirectories = new AtomicInteger();
+    private final AtomicInteger createdFiles = new AtomicInteger();
+    private final AtomicInteger touchedFiles = new AtomicInteger();
+
+    public FileTrees(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Map<Path, String> errors() {
+        return errors;
+    }
+
+    public int createdDirectories() {
+        return createdDirectories.get();
+    }
+
+    public int createdFiles() {
+        return createdFiles.get();
+    }
+
+    // Existing files whose time touch set
+    public int touchedFiles() {
+        return touchedFiles.get();
+    }
+
+    public boolean delete(Path root) {
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            return pool.invoke(new DeleteTask(root));
+        }
+    }
+
+    public boolean copy(Path source, Path target) {
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            return pool.invoke(new CopyTask(source, target));
+        }
+    }
+
+    /**
+     * Creates the directories and their missing parents. From each target the parents
+     * are walked up to the first that exists, one stat each; the paths are
+     * deduplicated, so a parent shared by many targets is looked at once. Each level
+     * of the tree is then created in parallel once the level above it exists. An
+     * existing directory is fine as a parent, and as a target only when existingOk is
+     * set. Created directories are added to made when it is not null.
+     */
+    public boolean createDirectories(Collection<Path> targets, boolean existingOk, Queue<Path> made) {
+        Set<Path> explicit = new HashSet<>();
+        Set<Path> seen = new HashSet<>();
+        List<List<Path>> levels = new ArrayList<>();
+        for (Path target : targets) {
+            target = target.toAbsolutePath().normalize();
+            explicit.add(target);
+            for (Path path = target; path.getNameCount() > 0 && seen.add(path); path = path.getParent()) {
+                // The target itself is not looked at, mkdir tells whether it exists
+                if (path != target && Files.isDirectory(path)) {
+                    break;
+                }
+                int depth = path.getNameCount();
+                while (levels.size() < depth) {
+                    levels.add(new ArrayList<>());
+                }
+                levels.get(depth - 1).add(path);
+            }
+        }
+
+        // Below a parent that failed, only the parent's error is reported
+        Set<Path> failed = ConcurrentHashMap.newKeySet();
+        boolean ok = true;
+        // A handful of directories is not worth starting a pool
+        ForkJoinPool pool = seen.size() > FILE_BATCH ? new ForkJoinPool(parallelism) : null;
+        try {
+            for (List<Path> level : levels) {
+                if (level.isEmpty()) {
+                    // Above the first parent that exists
+                    continue;
+                }
+                BatchTask task = new BatchTask(level, path -> {
+                    if (failed.contains(path.getParent())) {
+                        failed.add(path);
+                        return !explicit.contains(path);
+                    }
+                    try {
+                        Files.createDirectory(path);
+                        createdDirectories.incrementAndGet();
+                        Metrics.increment(Metrics.Counter.FILES_TOUCHED);
+                        if (made != null) {
+                            made.add(path);
+                        }
+                        return true;
+                    } catch (FileAlreadyExistsException | AccessDeniedException e) {
+                        // Existing parents are expected, mkdir on them may also be denied
+                        if (!Files.isDirectory(path)) {
+                            failed.add(path);
+                            errors.put(path, e instanceof FileAlreadyExistsException ? "File exists" : "Permission denied");
+                            return false;
+                        }
+                        if (explicit.contains(path) && !existingOk) {
+                            errors.put(path, "Directory already exists");
+                            return false;
+                        }
+                        return true;
+                    } catch (IOException e) {
+                        failed.add(path);
+                        errors.put(path, "Failed to create directory: " + e.getMessage());
+                        return false;
+                    }
+                });
+                ok &= pool == null ? task.compute() : pool.invoke(task);
+            }
+        } finally {
+            if (pool != null) {
+                pool.close();
+            }
+        }
+        return ok;
+    }
+
+    // Creates missing files and their parents, and sets the time of the files that exist
+    public boolean touch(Collection<Path> files, FileTime time) {
+        Set<Path> unique = new LinkedHashSet<>();
+        Set<Path> parents = new HashSet<>();
+        List<Path> missing = new ArrayList<>();
+        for (Path file : files) {
+            file = file.toAbsolutePath().normalize();
+            unique.add(file);
+            // Usually all files share a few parents, one stat each
+            if (file.getParent() != null && parents.add(file.getParent()) && !Files.isDirectory(file.getParent())) {
+                missing.add(file.getParent());
+            }
+        }
+        boolean ok = missing.isEmpty() || createDirectories(missing, true, null);
+
+        BatchTask task = new BatchTask(new ArrayList<>(unique), file -> {
+            try {
+                Files.createFile(file);
+                createdFiles.incrementAndGet();
+                Metrics.increment(Metrics.Counter.FILES_TOUCHED);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                // Fall through to setting the time
+            } catch (IOException e) {
+                if (!errors.containsKey(file.getParent())) {
+                    errors.put(file, "Failed to create file: " + e.getMessage());
+                }
+                return false;
+            }
+            try {
+                Files.setLastModifiedTime(file, time);
+                touchedFiles.incrementAndGet();
+                Metrics.increment(Metrics.Counter.FILES_TOUCHED);
+                return true;
+            } catch (IOException e) {
+                errors.put(file, "Failed to set time: " + e.getMessage());
+                return false;
+            }
+        });
+        if (unique.size() <= FILE_BATCH) {
+            return task.compute() && ok;
+        }
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            return pool.invoke(task) && ok;
+        }
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private static boolean joinAll(List<? extends RecursiveTask<Boolean>> tasks) {
+        boolean ok = true;
+        for (RecursiveTask<Boolean> task : ForkJoinTask.invokeAll(tasks)) {
+            ok &= task.join();
+        }
+        return ok;
+    }
+
+    private interface PathAction {
+        boolean apply(Path path);
+    }
+
+    // Applies the action to every path, splitting the list until a batch is small enough.
+    // ForkJoinTask is Serializable, the tasks here are never serialized
+    @SuppressWarnings("serial")
+    private static class BatchTask extends RecursiveTask<Boolean> {
+        private final List<Path> paths;
+        private final PathAction action;
+
+        BatchTask(List<Path> paths, PathAction action) {
+            this.paths = paths;
+            this.action = action;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (paths.size() > FILE_BATCH) {
+                int middle = paths.size() / 2;
+                return joinAll(List.of(new BatchTask(paths.subList(0, middle), action),
+                        new BatchTask(paths.subList(middle, paths.size()), action)));
+            }
+            boolean ok = true;
+            for (Path path : paths) {
+                ok &= action.apply(path);
+            }
+            return ok;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class DeleteTask extends RecursiveTask<Boolean> {
+        private final Path path;
+        private final List<Path> files;
+
+        DeleteTask(Path path) {
+            this.path = path;
+            this.files = null;
+        }
+
+        DeleteTask(List<Path> files) {
+            this.path = null;
+            this.files = files;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (files != null) {
+                boolean ok = true;
+                for (Path file : files) {
+                    ok &= deleteEntry(file);
+                }
+                return ok;
+            }
+
+            try {
+                if (!attributes(path).isDirectory()) {
+                    return deleteEntry(path);
+                }
+            } catch (IOException e) {
+                errors.put(path, "No such file or directory");
+                return false;
+            }
+
+            List<DeleteTask> subtasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        subtasks.add(new DeleteTask(entry));
+                    } else {
+                        batch.add(entry);
+                        if (batch.size() == FILE_BATCH) {
+                            subtasks.add(new DeleteTask(batch));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                errors.put(path, "Cannot read directory: " + e.getMessage());
+                return false;
+            }
+            if (!batch.isEmpty()) {
+                subtasks.add(new DeleteTask(batch));
+            }
+
+            // Post-order: the directory goes only once everything inside it is gone
+            return joinAll(subtasks) && deleteEntry(path);
+        }
+
+        private boolean deleteEntry(Path entry) {
+            try {
+                Files.delete(entry);
+                Metrics.increment(Metrics.Counter.DELETES);
+                return true;
+            } catch (IOException e) {
+                errors.put(entry, "Failed to delete: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class CopyTask extends RecursiveTask<Boolean> {
+        private final Path source;
+        private final Path target;
+        private final List<Path> files;
+
+        CopyTask(Path source, Path target) {
+            this(source, target, null);
+        }
+
+        CopyTask(Path source, Path target, List<Path> files) {
+            this.source = source;
+            this.target = target;
+            this.files = files;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (files != null) {
+                boolean ok = true;
+                for (Path file : files) {
+                    ok &= copyEntry(file, target.resolve(file.getFileName().toString()));
+                }
+                return ok;
+            }
+
+            try {
+                if (!attributes(source).isDirectory()) {
+                    return copyEntry(source, target);
+                }
+                if (!Files.isDirectory(target)) {
+                    Files.createDirectory(target);
+                }
+            } catch (IOException e) {
+                errors.put(source, "Failed to copy: " + e.getMessage());
+                return false;
+            }
+
+            List<CopyTask> subtasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        subtasks.add(new CopyTask(entry, target.resolve(entry.getFileName().toString())));
+                    } else {
+                        batch.add(entry);
+                        if (batch.size() == FILE_BATCH) {
+                            subtasks.add(new CopyTask(source, target, batch));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                errors.put(source, "Cannot read directory: " + e.getMessage());
+                return false;
+            }
+            if (!batch.isEmpty()) {
+                subtasks.add(new CopyTask(source, target, batch));
+            }
+            return joinAll(subtasks);
+        }
+
+        private boolean copyEntry(Path from, Path to) {
+            try {
+                Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+                Metrics.increment(Metrics.Counter.FILES_TOUCHED);
+                return true;
+            } catch (IOException e) {
+                errors.put(from, "Failed to copy: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Pathname expansion as in the shell: *, ? and [...] match within one name, and a
+ * ** segment matches any number of directories. Each word expands to the matching
+ * paths, sorted; a word without matches is kept as it is, as bash does. Names
+ * starting with a dot only match a segment that starts with one, and ** does not
+ * follow symbolic links.
+ *
+ * Every segment is compiled once into a PathMatcher. The words of one command line
+ * are expanded together: a directory is listed once for all the patterns that need
+ * it, and segments without wildcards are looked up rather than listed.
+ */
+public final class GlobExpansion {
+    private GlobExpansion() {
+    }
+
+    // A pattern waiting for a directory: the matches so far start with prefix
+    private record State(int pattern, String prefix, int segment) {
+    }
+
+    // Expands the unquoted words with wildcards, the word after a redirect stays as it is
+    public static List<Tokenizer.Token> expand(List<Tokenizer.Token> tokens, Path directory) {
+        List<Integer> globs = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Tokenizer.Token token = tokens.get(i);
+            boolean redirected = i > 0 && (tokens.get(i - 1).type() == Tokenizer.Type.REDIRECT
+                    || tokens.get(i - 1).type() == Tokenizer.Type.APPEND);
+            if (token.type() == Tokenizer.Type.WORD && !token.quoted() && !redirected && isGlob(token.text())) {
+                globs.add(i);
+            }
+        }
+        if (globs.isEmpty()) {
+            return tokens;
+        }
+
+        List<String> patterns = new ArrayList<>(globs.size());
+        for (int index : globs) {
+            patterns.add(tokens.get(index).text());
+        }
+        List<List<String>> matches = matches(patterns, directory);
+
+        List<Tokenizer.Token> expanded = new ArrayList<>(tokens.size());
+        int next = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (next < globs.size() && globs.get(next) == i) {
+                List<String> words = matches.get(next++);
+                if (!words.isEmpty()) {
+                    for (String word : words) {
+                        expanded.add(new Tokenizer.Token(Tokenizer.Type.WORD, word, false));
+                    }
+                    continue;
+                }
+            }
+            expanded.add(tokens.get(i));
+        }
+        return expanded;
+    }
+
+    public static boolean isGlob(String word) {
+        int open = word.indexOf('[');
+        return word.indexOf('*') >= 0 || word.indexOf('?') >= 0 || (open >= 0 && word.indexOf(']', open + 1) > 0);
+    }
+
+    // The sorted matches of every pattern, relative paths resolved against directory
+    public static List<List<String>> matches(List<String> patterns, Path directory) {
+        return new Expansion(patterns, directory).run();
+    }
+
+    private static final class Expansion {
+        private final String[][] segments;
+        private final boolean[] directoriesOnly;
+        private final List<List<String>> matches = new ArrayList<>();
+        private final Map<String, PathMatcher> matchers = new HashMap<>();
+        // Directories still to list, with the patterns waiting for each
+        private final Map<Path, List<State>> pending = new LinkedHashMap<>();
+        private final Path directory;
+
+        Expansion(List<String> patterns, Path directory) {
+            this.directory = directory;
+            segments = new String[patterns.size()][];
+            directoriesOnly = new boolean[patterns.size()];
+            for (int i = 0; i < patterns.size(); i++) {
+                String pattern = patterns.get(i);
+                directoriesOnly[i] = pattern.endsWith("/");
+                // The empty first segment of an absolute pattern keeps the root in the prefix
+                segments[i] = pattern.split("/+");
+                matches.add(new ArrayList<>());
+            }
+        }
+
+        List<List<String>> run() {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].length == 0) {
+                    continue;
+                }
+                advance(i, "", 0);
+            }
+            while (!pending.isEmpty()) {
+                Iterator<Map.Entry<Path, List<State>>> first = pending.entrySet().iterator();
+                Map.Entry<Path, List<State>> entry = first.next();
+                first.remove();
+                list(entry.getKey(), entry.getValue());
+            }
+            for (List<String> words : matches) {
+                Collections.sort(words);
+            }
+            return matches;
+        }
+
+        // Follows the segments without wildcards from segment on, then waits for a listing
+        private void advance(int pattern, String prefix, int segment) {
+            String[] parts = segments[pattern];
+            while (segment < parts.length && !isGlob(parts[segment])) {
+                prefix = prefix + parts[segment] + "/";
+                segment++;
+            }
+            String path = prefix.isEmpty() ? "." : prefix;
+            if (segment == parts.length) {
+                // Only reached after a wildcard matched, the rest are plain names
+                String match = prefix.substring(0, prefix.length() - 1);
+                Path resolved = directory.resolve(match);
+                boolean exists = directoriesOnly[pattern] ? Files.isDirectory(resolved)
+                        : Files.exists(resolved, LinkOption.NOFOLLOW_LINKS);
+                if (exists) {
+                    matches.get(pattern).add(directoriesOnly[pattern] ? match + "/" : match);
+                }
+                return;
+            }
+            Path dir = directory.resolve(path);
+            if (!prefix.isEmpty() && !Files.isDirectory(dir)) {
+                return;
+            }
+            pending.computeIfAbsent(dir.normalize(), key -> new ArrayList<>()).add(new State(pattern, prefix, segment));
+        }
+
+        private void list(Path dir, List<State> states) {
+            // ** also matches no directory at all, so the next segment applies here as well
+            for (int i = 0; i < states.size(); i++) {
+                State state = states.get(i);
+                String[] parts = segments[state.pattern()];
+                int next = state.segment() + 1;
+                if (!parts[state.segment()].equals("**") || next == parts.length) {
+                    continue;
+                }
+                if (isGlob(parts[next])) {
+                    states.add(new State(state.pattern(), state.prefix(), next));
+                } else {
+                    advance(state.pattern(), state.prefix(), next);
+                }
+            }
+
+            Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    Path name = entry.getFileName();
+                    String text = name.toString();
+                    // Looked up once per entry, and only when a pattern needs to know
+                    Boolean isDirectory = null;
+                    for (State state : states) {
+                        String[] parts = segments[state.pattern()];
+                        String segment = parts[state.segment()];
+                        boolean last = state.segment() + 1 == parts.length;
+                        if (text.startsWith(".") && !segment.startsWith(".")) {
+                            continue;
+                        }
+                        if (segment.equals("**")) {
+                            if (isDirectory == null) {
+                                isDirectory = Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+                            }
+                            if (last && (!directoriesOnly[state.pattern()] || isDirectory)) {
+                                add(state, text);
+                            }
+                            if (isDirectory) {
+                                pending.computeIfAbsent(entry.normalize(), key -> new ArrayList<>())
+                                        .add(new State(state.pattern(), state.prefix() + text + "/", state.segment()));
+                            }
+                            continue;
+                        }
+                        PathMatcher matcher = matcher(segment);
+                        if (matcher == null || !matcher.matches(name)) {
+                            continue;
+                        }
+                        if (last && !directoriesOnly[state.pattern()]) {
+                            add(state, text);
+                            continue;
+                        }
+                        if (isDirectory == null) {
+                            isDirectory = Files.isDirectory(entry);
+                        }
+                        if (!isDirectory) {
+                            continue;
+                        }
+                        if (last) {
+                            add(state, text);
+                        } else {
+                            advance(state.pattern(), state.prefix() + text + "/", state.segment() + 1);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // An unreadable directory matches nothing, as in the shell
+            }
+        }
+
+        private void add(State state, String name) {
+            matches.get(state.pattern()).add(state.prefix() + name + (directoriesOnly[state.pattern()] ? "/" : ""));
+        }
+
+        // Null for a segment that is not a valid glob, which then matches nothing
+        private PathMatcher matcher(String segment) {
+            if (matchers.containsKey(segment)) {
+                return matchers.get(segment);
+            }
+            PathMatcher matcher;
+            try {
+                matcher = directory.getFileSystem().getPathMatcher("glob:" + segment);
+            } catch (PatternSyntaxException e) {
+                matcher = null;
+            }
+            matchers.put(segment, matcher);
+            return matcher;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The uncompressed contents of a gzip file, read as a channel so that cat copies it
+ * like any other file. The compressed bytes are read into a pooled direct buffer
+ * and inflated straight into the caller's buffer. Files of several members, as
+ * written by GzipWriter, bgzip or by appending .gz files, are read to the end; each
+ * member's CRC and length are checked.
+ */
+public class GzipReader implements ReadableByteChannel {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final FileChannel in;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer input;
+    // Where the current member's compressed data starts, and the next byte to read
+    private long dataStart;
+    private long position;
+    private boolean done;
+
+    public GzipReader(FileChannel in) throws IOException {
+        this.in = in;
+        dataStart = skipHeader(0);
+        position = dataStart;
+        input = BufferPool.take().limit(0);
+    }
+
+    // True when the file starts with the gzip magic bytes
+    public static boolean isGzip(FileChannel channel) throws IOException {
+        return isGzip(channel, 0);
+    }
+
+    private static boolean isGzip(FileChannel channel, long position) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        // A file returns both bytes in one read unless it ends first
+        return channel.read(magic, position) == 2 && magic.get(0) == (byte) 0x1f && magic.get(1) == (byte) 0x8b;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (done) {
+            return -1;
+        }
+        while (true) {
+            if (inflater.finished()) {
+                nextMember();
+                if (done) {
+                    return -1;
+                }
+            }
+            if (inflater.needsInput()) {
+                input.clear();
+                int read = in.read(input, position);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of compressed data");
+                }
+                position += read;
+                inflater.setInput(input.flip());
+            }
+            int start = dst.position();
+            int inflated;
+            try {
+                inflated = inflater.inflate(dst);
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data: " + e.getMessage());
+            }
+            if (inflated > 0) {
+                crc.update(dst.duplicate().limit(dst.position()).position(start));
+                return inflated;
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+        }
+    }
+
+    // Checks the trailer of the member just inflated and moves to the next one, if any
+    private void nextMember() throws IOException {
+        long end = dataStart + inflater.getBytesRead();
+        ByteBuffer trailer = readAt(end, 8).order(ByteOrder.LITTLE_ENDIAN);
+        if (trailer.getInt(0) != (int) crc.getValue() || trailer.getInt(4) != (int) inflater.getBytesWritten()) {
+            throw new ZipException("Corrupt gzip trailer");
+        }
+        // Anything after the last member that is not another one is ignored, as gzip does
+        if (end + 8 >= in.size() || !isGzip(in, end + 8)) {
+            done = true;
+            return;
+        }
+        dataStart = skipHeader(end + 8);
+        position = dataStart;
+        inflater.reset();
+        crc.reset();
+        input.clear().limit(0);
+    }
+
+    // The position of the compressed data after the member header at start
+    private long skipHeader(long start) throws IOException {
+        ByteBuffer header = readAt(start, 10);
+        if (header.get(0) != (byte) 0x1f || header.get(1) != (byte) 0x8b || header.get(2) != 8) {
+            throw new ZipException("Not in gzip format");
+        }
+        int flags = header.get(3);
+        long next = start + 10;
+        if ((flags & FEXTRA) != 0) {
+            next += 2 + (readAt(next, 2).order(ByteOrder.LITTLE_ENDIAN).getShort(0) & 0xffff);
+        }
+        if ((flags & FNAME) != 0) {
+            next = skipString(next);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            next = skipString(next);
+        }
+        if ((flags & FHCRC) != 0) {
+            next += 2;
+        }
+        return next;
+    }
+
+    // The position after the zero that ends the string at start
+    private long skipString(long start) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(256);
+        long next = start;
+        while (true) {
+            chunk.clear();
+            if (in.read(chunk, next) <= 0) {
+                throw new EOFException("Unexpected end of gzip header");
+            }
+            for (int i = 0; i < chunk.position(); i++) {
+                if (chunk.get(i) == 0) {
+                    return next + i + 1;
+                }
+            }
+            next += chunk.position();
+        }
+    }
+
+    private ByteBuffer readAt(long start, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (in.read(bytes, start + bytes.position()) < 0) {
+                throw new EOFException("Unexpected end of compressed data");
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return input != null;
+    }
+
+    // Returns the buffer to the pool, the file channel is left to its owner
+    @Override
+    public void close() {
+        if (input != null) {
+            inflater.end();
+            BufferPool.release(input);
+            input = null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A channel that gzips what is written to it, for the >z and >>z redirects. The
+ * input is cut into blocks of 1 MB and every block becomes a gzip member of its own,
+ * as bgzip does, so the blocks are compressed in parallel and the members are
+ * written in order. gzip, zcat and GzipReader read such a file as one stream; the
+ * cost is the 18 bytes of a member header and trailer per block, and a block not
+ * seeing the previous one's bytes as a dictionary.
+ */
+public class GzipWriter implements WritableByteChannel {
+    static final int BLOCK_SIZE = 1 << 20;
+    // Member header: magic, deflate, no flags, no time, no extra flags, unknown OS
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final WritableByteChannel out;
+    private final ExecutorService pool;
+    // Compressed members not written yet, in input order
+    private final Queue<Future<ByteBuffer>> pending = new ArrayDeque<>();
+    // Blocks whose member has been made, reused for the next input
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final int maxPending;
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int count;
+    private boolean empty = true;
+    private boolean closed;
+
+    public GzipWriter(WritableByteChannel out, int parallelism) {
+        this.out = out;
+        this.pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        // Enough to keep every thread busy while the oldest member is written
+        this.maxPending = 2 * Math.max(parallelism, 1);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            int length = Math.min(src.remaining(), BLOCK_SIZE - count);
+            src.get(block, count, length);
+            count += length;
+            if (count == BLOCK_SIZE) {
+                submit();
+            }
+        }
+        return written;
+    }
+
+    private void submit() throws IOException {
+        byte[] data = block;
+        int length = count;
+        byte[] reused = free.poll();
+        block = reused != null ? reused : new byte[BLOCK_SIZE];
+        count = 0;
+        empty = false;
+        if (pool == null) {
+            writeFully(member(data, length));
+            free.add(data);
+            return;
+        }
+        pending.add(pool.submit(() -> {
+            ByteBuffer member = member(data, length);
+            free.add(data);
+            return member;
+        }));
+        if (pending.size() >= maxPending) {
+            writeFully(next());
+        }
+    }
+
+    private ByteBuffer next() throws IOException {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClosedByInterruptException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeFully(ByteBuffer member) throws IOException {
+        while (member.hasRemaining()) {
+            out.write(member);
+        }
+    }
+
+    // One complete gzip member holding the block
+    private static ByteBuffer member(byte[] data, int length) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            // Incompressible data grows by a few bytes per 16 KB stored block
+            byte[] member = Arrays.copyOf(HEADER, HEADER.length + length + length / 1000 + 64);
+            int size = HEADER.length;
+            while (!deflater.finished()) {
+                if (size == member.length) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                size += deflater.deflate(member, size, member.length - size);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            member = Arrays.copyOf(member, size + 8);
+            return ByteBuffer.wrap(member).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(size, (int) crc.getValue())
+                    .putInt(size + 4, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // Compresses the last block and writes the members still pending; the target stays open
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // A killed job leaves a truncated file, as a killed gzip does
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            // Empty input still makes a valid, empty gzip file
+            if (count > 0 || empty) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeFully(next());
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
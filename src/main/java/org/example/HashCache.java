@@ -0,0 +1,159 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes computed before, kept in a file so that hashing a tree that did not change
+ * again reads no file contents at all. An entry is keyed on the file's identity
+ * (device and inode where the file system has them), its size and its modification
+ * time, so a file that was changed, replaced or renamed over is hashed again.
+ *
+ * The file is loaded on first use and new entries are appended when save is called,
+ * under a lock so several interpreters can share it. Later entries win, and the file
+ * is rewritten once it holds many more records than live entries; an entry another
+ * process appended meanwhile may be lost then, which only costs hashing it again.
+ */
+public class HashCache {
+    public enum Kind {
+        MD5, SHA256, PARTIAL
+    }
+
+    private record Key(String identity, long size, long modified, Kind kind) {
+    }
+
+    private final Path file;
+    private Map<Key, byte[]> entries;
+    private final Map<Key, byte[]> unsaved = new HashMap<>();
+    private int records;
+    // The file ends in a damaged record, appending after it would hide the new ones
+    private boolean damaged;
+
+    public HashCache(Path file) {
+        this.file = file;
+    }
+
+    // ~/.cli_hashes, or the file named by the cli.hashCache property
+    public static Path defaultFile() {
+        String name = System.getProperty("cli.hashCache");
+        return name != null ? Paths.get(name) : Paths.get(System.getProperty("user.home"), ".cli_hashes");
+    }
+
+    // The stored hash, or null when the file changed since or was never hashed
+    public synchronized byte[] get(Path path, BasicFileAttributes attrs, Kind kind) {
+        load();
+        return entries.get(key(path, attrs, kind));
+    }
+
+    public synchronized void put(Path path, BasicFileAttributes attrs, Kind kind, byte[] hash) {
+        load();
+        Key key = key(path, attrs, kind);
+        entries.put(key, hash);
+        unsaved.put(key, hash);
+    }
+
+    // Appends the entries added since the last save, errors are left to the caller
+    public synchronized void save() throws IOException {
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        boolean compact = damaged || records + unsaved.size() > 2 * entries.size() + 1024;
+        Map<Key, byte[]> toWrite = compact ? entries : unsaved;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Map.Entry<Key, byte[]> entry : toWrite.entrySet()) {
+            write(out, entry.getKey(), entry.getValue());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            // Held until the channel closes, so appends and compactions of two processes do not interleave
+            channel.lock();
+            if (compact) {
+                // A temp file of its own next to the file, renamed over it, a crash leaves the old file
+                Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+                try {
+                    try (FileChannel rewritten = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                        while (buffer.hasRemaining()) {
+                            rewritten.write(buffer);
+                        }
+                    }
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.deleteIfExists(temp);
+                    throw e;
+                }
+                records = entries.size();
+                damaged = false;
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                records += unsaved.size();
+            }
+        }
+        unsaved.clear();
+    }
+
+    public synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new HashMap<>();
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), 1 << 16))) {
+            while (true) {
+                // The end of the file only between records, one cut short inside is damaged
+                in.mark(1);
+                if (in.read() < 0) {
+                    break;
+                }
+                in.reset();
+                String identity = in.readUTF();
+                Key key = new Key(identity, in.readLong(), in.readLong(), Kind.values()[in.readUnsignedByte()]);
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                entries.put(key, hash);
+                records++;
+            }
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            // A record cut short by a crash: what was read is kept, the next save rewrites the file
+            damaged = true;
+        }
+    }
+
+    private static void write(DataOutputStream out, Key key, byte[] hash) throws IOException {
+        out.writeUTF(key.identity());
+        out.writeLong(key.size());
+        out.writeLong(key.modified());
+        out.writeByte(key.kind().ordinal());
+        out.writeByte(hash.length);
+        out.write(hash);
+    }
+
+    private static Key key(Path path, BasicFileAttributes attrs, Kind kind) {
+        // On Unix the file key is the device and inode, elsewhere the path has to do
+        Object fileKey = attrs.fileKey();
+        String identity = fileKey != null ? fileKey.toString() : path.toAbsolutePath().normalize().toString();
+        long modified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        return new Key(identity, attrs.size(), modified, kind);
+    }
+}
@@ -0,0 +1,370 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Command history kept in a file of fixed-size records, so entry n is at offset
+ * (n - 1) * RECORD_SIZE and nothing has to be read at startup: the last entries and
+ * single entries are read where they are. A record is a length byte followed by up to
+ * 127 bytes of UTF-8. A longer command is not saved but still takes its number, as a
+ * record with the length byte TOO_LONG, so !! and !n never pick another command.
+ *
+ * Several interpreters can share the file. A record is appended with one write in
+ * append mode while holding a lock on the file, and a partial record left by a
+ * crashed writer is cut off before the next one.
+ *
+ * Prefix search uses an index of the distinct commands, built on the first search
+ * and then kept up to date with the records written since, by this or any other
+ * process.
+ */
+public class History implements Closeable {
+    public static final int RECORD_SIZE = 128;
+    private static final int MAX_LENGTH = RECORD_SIZE - 1;
+    // Length byte of the record standing in for a command that was too long to save
+    private static final byte TOO_LONG = (byte) 0xff;
+    // Records read at once when scanning the file
+    private static final int READ_BATCH = 8192;
+
+    // FileLock is held per process, so writers within this JVM take turns here first
+    private static final Object APPEND_LOCK = new Object();
+
+    public record Entry(int number, String command) {
+    }
+
+    private final Path file;
+    // Java does not open a channel for both reading and appending
+    private FileChannel appender;
+    private FileChannel reader;
+    private PrefixIndex index;
+    // Records already in the index
+    private int indexed;
+
+    public History(Path file) {
+        this.file = file;
+    }
+
+    // ~/.cli_history, or the file named by the cli.history property
+    public static Path defaultFile() {
+        String name = System.getProperty("cli.history");
+        return name != null ? Paths.get(name) : Paths.get(System.getProperty("user.home"), ".cli_history");
+    }
+
+    // False when the command is too long to be saved, its number is then taken by a marker
+    public boolean add(String command) throws IOException {
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) {
+            return false;
+        }
+        boolean fits = bytes.length <= MAX_LENGTH;
+        FileChannel channel = appender();
+        synchronized (APPEND_LOCK) {
+            // Released explicitly, the channel stays open for the next command
+            FileLock lock = channel.lock();
+            try {
+                long size = channel.size();
+                if (size % RECORD_SIZE != 0) {
+                    // Never counted as an entry, as size() rounds down
+                    channel.truncate(size - size % RECORD_SIZE);
+                }
+                ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                if (fits) {
+                    record.put((byte) bytes.length).put(bytes).clear();
+                } else {
+                    record.put(TOO_LONG).clear();
+                }
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+        return fits;
+    }
+
+    // Number of the last entry, every record counts even when empty
+    public int size() throws IOException {
+        if (reader == null && !Files.exists(file)) {
+            return 0;
+        }
+        return (int) (reader().size() / RECORD_SIZE);
+    }
+
+    // The command of entry number, null when there is no such entry
+    public String get(int number) throws IOException {
+        if (number < 1 || number > size()) {
+            return null;
+        }
+        List<Entry> entries = read(number - 1, number);
+        return entries.isEmpty() ? null : entries.get(0).command();
+    }
+
+    public List<Entry> tail(int count) throws IOException {
+        int size = size();
+        return read(Math.max(0, size - count), size);
+    }
+
+    // The most recent command starting with prefix, or null
+    public Entry lastWithPrefix(String prefix) throws IOException {
+        List<Entry> matches = search(prefix, 1);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    // Distinct commands starting with prefix, most recently used first
+    public List<Entry> search(String prefix, int limit) throws IOException {
+        catchUp();
+        return index.search(prefix, limit);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (appender != null) {
+            appender.close();
+            appender = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private FileChannel appender() throws IOException {
+        if (appender == null) {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            appender = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return appender;
+    }
+
+    private FileChannel reader() throws IOException {
+        if (reader == null) {
+            reader = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        return reader;
+    }
+
+    // Entries of the records from (inclusive) to (exclusive), empty records and markers are skipped
+    private List<Entry> read(int from, int to) throws IOException {
+        from = Math.min(from, to);
+        List<Entry> entries = new ArrayList<>(to - from);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(to - from, READ_BATCH) * RECORD_SIZE);
+        for (int start = from; start < to; start += READ_BATCH) {
+            int end = Math.min(to, start + READ_BATCH);
+            buffer.clear().limit((end - start) * RECORD_SIZE);
+            long position = (long) start * RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                if (reader().read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = 0; i < buffer.position() / RECORD_SIZE; i++) {
+                int offset = i * RECORD_SIZE;
+                int length = buffer.get(offset) & 0xff;
+                if (length > 0 && length <= MAX_LENGTH) {
+                    String command = new String(buffer.array(), offset + 1, length, StandardCharsets.UTF_8);
+                    entries.add(new Entry(start + i + 1, command));
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Adds the records written since the last search to the index
+    private void catchUp() throws IOException {
+        int size = size();
+        if (index == null) {
+            index = new PrefixIndex();
+        }
+        // Many new records, e.g. the first search, are sorted in one go
+        Map<String, Integer> batch = size - indexed > PrefixIndex.MIN_PENDING ? new HashMap<>() : null;
+        for (int start = indexed; start < size; start += READ_BATCH) {
+            for (Entry entry : read(start, Math.min(size, start + READ_BATCH))) {
+                if (batch != null) {
+                    batch.merge(entry.command(), entry.number(), Math::max);
+                } else {
+                    index.add(entry.command(), entry.number());
+                }
+            }
+        }
+        if (batch != null) {
+            index.addAll(batch);
+        }
+        indexed = size;
+    }
+
+    /**
+     * Distinct commands in sorted order with the number of their last use, so the
+     * commands with a prefix are one contiguous range found by binary search. The
+     * most recent one in the range comes from the maximum of each block of 64, so a
+     * one letter prefix over a million commands looks at a few thousand numbers.
+     * Commands added later wait in a small tree map until it is merged in.
+     */
+    private static final class PrefixIndex {
+        private static final int BLOCK = 64;
+        static final int MIN_PENDING = 1 << 12;
+
+        private String[] commands = new String[0];
+        private int[] numbers = new int[0];
+        private int[] blockMax = new int[0];
+        private final TreeMap<String, Integer> pending = new TreeMap<>();
+
+        void add(String command, int number) {
+            pending.merge(command, number, Math::max);
+            if (pending.size() >= Math.max(MIN_PENDING, commands.length / 8)) {
+                merge(pending.entrySet().iterator(), pending.size());
+                pending.clear();
+            }
+        }
+
+        void addAll(Map<String, Integer> latest) {
+            List<Map.Entry<String, Integer>> sorted = new ArrayList<>(latest.entrySet());
+            sorted.sort(Map.Entry.comparingByKey());
+            merge(sorted.iterator(), sorted.size());
+        }
+
+        List<Entry> search(String prefix, int limit) {
+            // Newest first, the heap keeps the limit best seen so far. A command also in the
+            // pending map is newer there, so only that one is offered and the heap holds distinct ones
+            PriorityQueue<Entry> best = new PriorityQueue<>(Comparator.comparingInt(Entry::number));
+            int from = lowerBound(prefix);
+            int to = endOfPrefix(prefix, from);
+            if (limit == 1) {
+                int top = maxIndex(from, to);
+                if (top >= 0) {
+                    best.add(new Entry(numbers[top], commands[top]));
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    if (!pending.containsKey(commands[i])) {
+                        offer(best, new Entry(numbers[i], commands[i]), limit);
+                    }
+                }
+            }
+            for (Map.Entry<String, Integer> entry : pending.tailMap(prefix, true).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                offer(best, new Entry(entry.getValue(), entry.getKey()), limit);
+            }
+
+            List<Entry> result = new ArrayList<>(best);
+            result.sort(Comparator.comparingInt(Entry::number).reversed());
+            return result;
+        }
+
+        private static void offer(PriorityQueue<Entry> best, Entry entry, int limit) {
+            if (limit <= 0) {
+                return;
+            }
+            if (best.size() < limit) {
+                best.add(entry);
+            } else if (best.peek().number() < entry.number()) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+
+        private int lowerBound(String prefix) {
+            int low = 0;
+            int high = commands.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (commands[mid].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // From the lower bound on, the commands start with the prefix up to some point
+        private int endOfPrefix(String prefix, int from) {
+            int low = from;
+            int high = commands.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (commands[mid].startsWith(prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int maxIndex(int from, int to) {
+            int best = -1;
+            int i = from;
+            while (i < to && i % BLOCK != 0) {
+                best = better(best, i++);
+            }
+            // Whole blocks only compare their maximum, the winning block is scanned at the end
+            int bestBlock = -1;
+            while (i + BLOCK <= to) {
+                if (bestBlock < 0 || blockMax[i / BLOCK] > blockMax[bestBlock]) {
+                    bestBlock = i / BLOCK;
+                }
+                i += BLOCK;
+            }
+            while (i < to) {
+                best = better(best, i++);
+            }
+            if (bestBlock >= 0 && (best < 0 || blockMax[bestBlock] > numbers[best])) {
+                for (int j = bestBlock * BLOCK; j < (bestBlock + 1) * BLOCK; j++) {
+                    best = better(best, j);
+                }
+            }
+            return best;
+        }
+
+        private int better(int best, int candidate) {
+            return best < 0 || numbers[candidate] > numbers[best] ? candidate : best;
+        }
+
+        // Merges sorted commands into the sorted arrays, one pass over both
+        private void merge(Iterator<Map.Entry<String, Integer>> sorted, int size) {
+            int total = commands.length + size;
+            String[] mergedCommands = new String[total];
+            int[] mergedNumbers = new int[total];
+            int count = 0;
+            int i = 0;
+            while (sorted.hasNext()) {
+                Map.Entry<String, Integer> entry = sorted.next();
+                while (i < commands.length && commands[i].compareTo(entry.getKey()) < 0) {
+                    mergedCommands[count] = commands[i];
+                    mergedNumbers[count++] = numbers[i++];
+                }
+                int number = entry.getValue();
+                if (i < commands.length && commands[i].equals(entry.getKey())) {
+                    number = Math.max(number, numbers[i++]);
+                }
+                mergedCommands[count] = entry.getKey();
+                mergedNumbers[count++] = number;
+            }
+            while (i < commands.length) {
+                mergedCommands[count] = commands[i];
+                mergedNumbers[count++] = numbers[i++];
+            }
+            commands = Arrays.copyOf(mergedCommands, count);
+            numbers = Arrays.copyOf(mergedNumbers, count);
+
+            blockMax = new int[(count + BLOCK - 1) / BLOCK];
+            for (int j = 0; j < count; j++) {
+                blockMax[j / BLOCK] = Math.max(blockMax[j / BLOCK], numbers[j]);
+            }
+        }
+    }
+}
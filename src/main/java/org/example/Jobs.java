@@ -0,0 +1,192 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Background jobs, started by a command line that ends with &. Every job runs on a
+ * virtual thread with its own copy of the interpreter, so a cd in a job does not move
+ * the session, and its output goes to a buffer of its own that is shown when the job
+ * is reported as finished.
+ *
+ * kill interrupts the job's thread. Cancellation is cooperative: the copy loops of
+ * cat and mv check for the interrupt between blocks and stop cleanly, mv rolling
+ * back what it already moved.
+ */
+public class Jobs {
+    // Output kept per job, the rest is dropped and counted
+    private static final int MAX_OUTPUT = 16 << 20;
+
+    public enum State {
+        RUNNING, DONE, KILLED
+    }
+
+    public static final class Job {
+        private final int id;
+        private final String command;
+        private final Main cli;
+        private final Capture output;
+        private final long started = System.nanoTime();
+        private volatile long finished;
+        private volatile boolean killed;
+        private Thread thread;
+
+        private Job(int id, String command, Main cli, Capture output) {
+            this.id = id;
+            this.command = command;
+            this.cli = cli;
+            this.output = output;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public String command() {
+            return command;
+        }
+
+        public State state() {
+            if (thread.isAlive()) {
+                return State.RUNNING;
+            }
+            return killed ? State.KILLED : State.DONE;
+        }
+
+        // Wall time so far, or until the job finished
+        public double seconds() {
+            long end = finished != 0 ? finished : System.nanoTime();
+            return (end - started) / 1e9;
+        }
+
+        // Bytes read or written by the job's commands so far
+        public long bytes() {
+            return cli.bytesProcessed();
+        }
+    }
+
+    private final Map<Integer, Job> jobs = new TreeMap<>();
+
+    public synchronized Job start(Main parent, String command, List<Tokenizer.Token> tokens) {
+        int id = jobs.isEmpty() ? 1 : ((TreeMap<Integer, Job>) jobs).lastKey() + 1;
+        Capture output = new Capture();
+        OutputSink sink = OutputSink.to(output);
+        Main cli = parent.copy(sink);
+        Job job = new Job(id, command, cli, output);
+        job.thread = Thread.ofVirtual().name("job-" + id).unstarted(() -> {
+            try {
+                cli.execute(tokens);
+            } finally {
+                cli.flush();
+                job.finished = System.nanoTime();
+            }
+        });
+        jobs.put(id, job);
+        job.thread.start();
+        return job;
+    }
+
+    public synchronized List<Job> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    // The job with the id, or the most recent one for id 0, null when there is none
+    public synchronized Job find(int id) {
+        if (id == 0) {
+            return jobs.isEmpty() ? null : ((TreeMap<Integer, Job>) jobs).lastEntry().getValue();
+        }
+        return jobs.get(id);
+    }
+
+    public boolean kill(Job job) {
+        if (!job.thread.isAlive()) {
+            return false;
+        }
+        job.killed = true;
+        job.thread.interrupt();
+        return true;
+    }
+
+    public void killAll() {
+        for (Job job : list()) {
+            kill(job);
+        }
+    }
+
+    // Waits for the job to end, then reports it like a finished job
+    public void await(Job job, OutputSink out, OutputSink err) throws InterruptedException {
+        job.thread.join();
+        report(job, out, err);
+    }
+
+    public void awaitAll(OutputSink out, OutputSink err) throws InterruptedException {
+        for (Job job : list()) {
+            await(job, out, err);
+        }
+    }
+
+    // Shows the output of every job that ended since the last call and forgets them
+    public void reportFinished(OutputSink out, OutputSink err) {
+        for (Job job : list()) {
+            if (!job.thread.isAlive()) {
+                report(job, out, err);
+            }
+        }
+    }
+
+    public static String describe(Job job) {
+        String state = switch (job.state()) {
+            case RUNNING -> "Running";
+            case DONE -> "Done";
+            case KILLED -> "Killed";
+        };
+        return String.format("[%d] %-8s %8.1fs %10s  %s", job.id(), state, job.seconds(), size(job.bytes()), job.command());
+    }
+
+    private synchronized void report(Job job, OutputSink out, OutputSink err) {
+        if (jobs.remove(job.id()) == null) {
+            return;
+        }
+        out.write(job.output.bytes());
+        if (job.output.dropped > 0) {
+            err.println("[" + job.id() + "] output truncated, " + job.output.dropped + " bytes dropped");
+        }
+        out.println(describe(job));
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " KB";
+        }
+        return (bytes / (1024 * 1024)) + " MB";
+    }
+
+    // The job's output, up to MAX_OUTPUT bytes
+    private static final class Capture extends ByteArrayOutputStream {
+        private long dropped;
+
+        @Override
+        public synchronized void write(int b) {
+            if (count < MAX_OUTPUT) {
+                super.write(b);
+            } else {
+                dropped++;
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int kept = Math.max(0, Math.min(len, MAX_OUTPUT - count));
+            super.write(b, off, kept);
+            dropped += len - kept;
+        }
+
+        synchronized ByteBuffer bytes() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
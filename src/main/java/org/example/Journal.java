@@ -0,0 +1,653 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal behind begin, commit and rollback. Inside a transaction mv, rm,
+ * mkdir and the cat redirects are planned into steps instead of run. Nothing is
+ * destroyed while planning: cat writes to a staged file next to its target, and a
+ * file that is removed or replaced is renamed to a hidden trash name next to it.
+ *
+ * At commit the steps and a commit record are appended and forced to disk, then the
+ * steps are applied, and a step that fails undoes the ones before it. Sessions that
+ * commit at the same time share one force: a commit whose records were covered by
+ * another session's force does not force again. A commit cut short by a crash is
+ * finished on the next start.
+ */
+public class Journal {
+    enum Op {
+        STAGED, MOVE, TRASH, MKDIR, REPLACE, APPEND, COMMIT, DONE, ABORT
+    }
+
+    // One change; for REPLACE and APPEND path is the staged file and other the target
+    record Step(Op op, Path path, Path other, long length) {
+    }
+
+    private enum Kind {
+        FILE, DIRECTORY, ABSENT
+    }
+
+    // Finished journals are emptied once they grow past this, when no other process uses them
+    private static final long COMPACT_SIZE = 1 << 20;
+
+    private final Path file;
+    // For the locks, reading and truncating; records are appended through the other channel
+    private FileChannel lockChannel;
+    private FileChannel appendChannel;
+    private FileLock lock;
+    private long written;
+    private int committing;
+    private long compactAt = COMPACT_SIZE;
+    private final Object syncLock = new Object();
+    private long synced;
+    private long syncs;
+
+    public Journal(Path file) {
+        this.file = file;
+    }
+
+    // ~/.cli_journal, or the file named by the cli.journal property
+    public static Path defaultFile() {
+        String name = System.getProperty("cli.journal");
+        return name != null ? Paths.get(name) : Paths.get(System.getProperty("user.home"), ".cli_journal");
+    }
+
+    public Transaction begin() {
+        return new Transaction(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    }
+
+    // Forces to disk so far, fewer than the commits when sessions commit together
+    public synchronized long syncs() {
+        return syncs;
+    }
+
+    /**
+     * The changes planned between begin and commit. Paths are absolute. Later commands
+     * of the transaction see what earlier ones planned: after mkdir a, mv b a moves b
+     * into a. What they read, cat's inputs, is the files as they were before begin, so
+     * a read of a path the transaction changes is refused. A transaction in which a
+     * command failed is not committed.
+     */
+    public final class Transaction {
+        private final long id;
+        private final List<Step> steps = new ArrayList<>();
+        private final List<Path> staged = new ArrayList<>();
+        private final Map<Path, Kind> planned = new HashMap<>();
+        private int names;
+        private boolean failed;
+
+        private Transaction(long id) {
+            this.id = id;
+        }
+
+        public int size() {
+            return steps.size();
+        }
+
+        public void fail() {
+            failed = true;
+        }
+
+        public boolean failed() {
+            return failed;
+        }
+
+        // True when a step moves, removes, creates or writes path or a directory above it
+        public boolean changes(Path path) {
+            path = absolute(path);
+            for (Path parent = path; parent != null; parent = parent.getParent()) {
+                if (planned.containsKey(parent)) {
+                    return true;
+                }
+            }
+            for (Step step : steps) {
+                if (step.op() == Op.APPEND && path.equals(step.other())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void move(Path source, Path target) throws IOException {
+            source = absolute(source);
+            target = absolute(target);
+            Kind kind = kind(source);
+            if (kind == Kind.ABSENT) {
+                throw new NoSuchFileException(source.toString(), null, "No such file or directory");
+            }
+            Path to = kind(target) == Kind.DIRECTORY ? target.resolve(source.getFileName()) : target;
+            if (to.equals(source) || to.startsWith(source)) {
+                throw new IOException("cannot move '" + source + "' into itself");
+            }
+            Kind existing = kind(to);
+            if (existing == Kind.DIRECTORY) {
+                throw new FileAlreadyExistsException(to.toString(), null, "Directory exists");
+            }
+            // A step is one rename, undone by another; a copy across file systems is mv's, outside begin
+            if (!store(source).equals(store(to))) {
+                throw new IOException("cannot move '" + source + "' to another file system in a transaction");
+            }
+            if (existing == Kind.FILE) {
+                trash(to);
+            }
+            steps.add(new Step(Op.MOVE, source, to, 0));
+            planned.put(source, Kind.ABSENT);
+            planned.put(to, kind);
+        }
+
+        public void delete(Path path, boolean recursive) throws IOException {
+            path = absolute(path);
+            Kind kind = kind(path);
+            if (kind == Kind.ABSENT) {
+                throw new NoSuchFileException(path.toString(), null, "No such file or directory");
+            }
+            if (kind == Kind.DIRECTORY && !recursive) {
+                throw new IOException(path + ": Is a directory");
+            }
+            trash(path);
+        }
+
+        // False when the directory exists and parents allows that
+        public boolean mkdir(Path dir, boolean parents) throws IOException {
+            dir = absolute(dir);
+            Kind kind = kind(dir);
+            if (kind != Kind.ABSENT) {
+                if (parents && kind == Kind.DIRECTORY) {
+                    return false;
+                }
+                throw new FileAlreadyExistsException(dir.toString(), null, "File exists");
+            }
+            Path parent = dir.getParent();
+            if (parent != null && kind(parent) != Kind.DIRECTORY) {
+                if (!parents || kind(parent) == Kind.FILE) {
+                    throw new NoSuchFileException(parent.toString(), null, "No such directory");
+                }
+                mkdir(parent, true);
+            }
+            steps.add(new Step(Op.MKDIR, dir, null, 0));
+            planned.put(dir, Kind.DIRECTORY);
+            return true;
+        }
+
+        // A new file next to target for the output of a command, removed if the transaction is not committed
+        public Path stage(Path target) throws IOException {
+            Path path = absolute(target).resolveSibling(".cli-staged-" + Long.toHexString(id) + "-" + names++);
+            // Not forced: losing it only leaves a staged file behind after a crash
+            append(record(id, Op.STAGED, path, null, 0));
+            staged.add(path);
+            return path;
+        }
+
+        // Plans writing the staged file to target, in place of its contents or after them
+        public void write(Path stagedFile, Path target, boolean appendTo) throws IOException {
+            target = absolute(target);
+            Kind kind = kind(target);
+            if (kind == Kind.DIRECTORY) {
+                throw new IOException(target + ": Is a directory");
+            }
+            if (appendTo && kind == Kind.FILE) {
+                Step replace = replaceOf(target);
+                if (replace != null) {
+                    // Written earlier in this transaction: the staged file grows instead
+                    try (FileChannel from = FileChannel.open(stagedFile, StandardOpenOption.READ);
+                            FileChannel to = FileChannel.open(replace.path(), StandardOpenOption.APPEND)) {
+                        from.transferTo(0, from.size(), to);
+                    }
+                    Files.delete(stagedFile);
+                    return;
+                }
+                if (planned.containsKey(target)) {
+                    throw new IOException(target + ": cannot append to a file moved in this transaction");
+                }
+                // The length to restore is taken at commit, when the records are written
+                steps.add(new Step(Op.APPEND, stagedFile, target, -1));
+                return;
+            }
+            if (kind == Kind.FILE) {
+                trash(target);
+            }
+            steps.add(new Step(Op.REPLACE, stagedFile, target, 0));
+            planned.put(target, Kind.FILE);
+        }
+
+        private Step replaceOf(Path target) {
+            for (int i = steps.size() - 1; i >= 0; i--) {
+                Step step = steps.get(i);
+                if (step.op() == Op.REPLACE && step.other().equals(target)) {
+                    return step;
+                }
+                if (target.equals(step.path()) || target.equals(step.other())) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private void trash(Path path) {
+            Path trash = path.resolveSibling(".cli-trash-" + Long.toHexString(id) + "-" + names++);
+            steps.add(new Step(Op.TRASH, path, trash, 0));
+            planned.put(path, Kind.ABSENT);
+        }
+
+        private Kind kind(Path path) {
+            Kind kind = planned.get(path);
+            if (kind != null) {
+                return kind;
+            }
+            // Below a directory that was moved or removed in this transaction
+            for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+                if (planned.get(parent) == Kind.ABSENT) {
+                    return Kind.ABSENT;
+                }
+            }
+            if (Files.isDirectory(path)) {
+                return Kind.DIRECTORY;
+            }
+            return Files.exists(path, LinkOption.NOFOLLOW_LINKS) ? Kind.FILE : Kind.ABSENT;
+        }
+    }
+
+    // Applies the transaction, or undoes what was applied and throws when a step fails
+    public void commit(Transaction transaction) throws IOException {
+        List<Step> steps = prepare(transaction);
+        try {
+            apply(steps);
+        } catch (IOException e) {
+            // Forced, as the commit record was: recovery must not redo what was undone
+            try {
+                sync(append(record(transaction.id, Op.ABORT, null, null, 0)));
+            } catch (IOException abort) {
+                e.addSuppressed(abort);
+            }
+            discard(transaction.staged);
+            throw e;
+        } finally {
+            synchronized (this) {
+                committing--;
+            }
+        }
+        purge(steps, transaction.staged);
+        // Not forced, the next commit's force covers it. Lost, the next start applies the steps again
+        append(record(transaction.id, Op.DONE, null, null, 0));
+        compact();
+    }
+
+    // Writes the steps and the commit record and forces them to disk, without applying them
+    List<Step> prepare(Transaction transaction) throws IOException {
+        List<Step> steps = new ArrayList<>(transaction.steps.size());
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (Step step : transaction.steps) {
+            if (step.op() == Op.APPEND) {
+                step = new Step(Op.APPEND, step.path(), step.other(), Files.size(step.other()));
+            }
+            steps.add(step);
+            records.write(record(transaction.id, step.op(), step.path(), step.other(), step.length()));
+        }
+        records.write(record(transaction.id, Op.COMMIT, null, null, 0));
+        synchronized (this) {
+            committing++;
+        }
+        try {
+            sync(append(records.toByteArray()));
+        } catch (IOException e) {
+            // commit's finally is not reached, compaction would wait for this one forever
+            synchronized (this) {
+                committing--;
+            }
+            throw e;
+        }
+        return steps;
+    }
+
+    public void rollback(Transaction transaction) throws IOException {
+        if (!transaction.staged.isEmpty()) {
+            append(record(transaction.id, Op.ABORT, null, null, 0));
+            discard(transaction.staged);
+        }
+    }
+
+    // Forces the done records and lets other processes recover or compact the journal
+    public synchronized void close() throws IOException {
+        if (appendChannel == null) {
+            return;
+        }
+        appendChannel.force(false);
+        appendChannel.close();
+        lockChannel.close();
+        appendChannel = null;
+        lockChannel = null;
+        lock = null;
+    }
+
+    /**
+     * Finishes the transactions a crash interrupted after their commit record was
+     * written, and removes the staged files of those that were not committed. Returns
+     * a line for each transaction finished or undone. Skipped while another process
+     * has the journal open.
+     */
+    public synchronized List<String> recover() throws IOException {
+        List<String> report = new ArrayList<>();
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            return report;
+        }
+        open();
+        lock.release();
+        FileLock exclusive = lockChannel.tryLock();
+        try {
+            if (exclusive == null) {
+                return report;
+            }
+            Map<Long, List<Step>> transactions = new LinkedHashMap<>();
+            Set<Long> committed = new HashSet<>();
+            Set<Long> ended = new HashSet<>();
+            read(transactions, committed, ended);
+            for (Map.Entry<Long, List<Step>> entry : transactions.entrySet()) {
+                long id = entry.getKey();
+                List<Step> steps = new ArrayList<>();
+                List<Path> staged = new ArrayList<>();
+                for (Step step : entry.getValue()) {
+                    if (step.op() == Op.STAGED) {
+                        staged.add(step.path());
+                    } else {
+                        steps.add(step);
+                    }
+                }
+                if (ended.contains(id)) {
+                    continue;
+                }
+                if (!committed.contains(id)) {
+                    discard(staged);
+                    continue;
+                }
+                int failed = 0;
+                for (Step step : steps) {
+                    try {
+                        redo(step);
+                    } catch (IOException e) {
+                        failed++;
+                        report.add("journal: " + Long.toHexString(id) + ": " + step.op().name().toLowerCase()
+                                + " " + step.path() + ": " + e.getMessage());
+                    }
+                }
+                purge(steps, staged);
+                report.add("journal: finished transaction " + Long.toHexString(id) + " (" + steps.size()
+                        + " operations" + (failed > 0 ? ", " + failed + " failed)" : ")"));
+            }
+            lockChannel.truncate(0);
+            lockChannel.force(true);
+            written = 0;
+        } finally {
+            if (exclusive != null) {
+                exclusive.release();
+            }
+            lock = lockChannel.lock(0, Long.MAX_VALUE, true);
+        }
+        return report;
+    }
+
+    private void read(Map<Long, List<Step>> transactions, Set<Long> committed, Set<Long> ended) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] payload;
+                int crc;
+                try {
+                    int length = in.readInt();
+                    crc = in.readInt();
+                    if (length < 0 || length > 1 << 20) {
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) {
+                    // A record torn by the crash, nothing after it was committed
+                    return;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                long id = record.readLong();
+                Op op = Op.values()[record.readUnsignedByte()];
+                Path path = path(record.readUTF());
+                Path other = path(record.readUTF());
+                long length = record.readLong();
+                switch (op) {
+                    case COMMIT -> committed.add(id);
+                    case DONE, ABORT -> ended.add(id);
+                    default -> transactions.computeIfAbsent(id, key -> new ArrayList<>())
+                            .add(new Step(op, path, other, length));
+                }
+            }
+        }
+    }
+
+    // Applies the steps in order; when one fails, the ones before it are undone
+    private static void apply(List<Step> steps) throws IOException {
+        for (int i = 0; i < steps.size(); i++) {
+            try {
+                apply(steps.get(i));
+            } catch (IOException e) {
+                for (int j = i; j >= 0; j--) {
+                    try {
+                        undo(steps.get(j));
+                    } catch (IOException ignored) {
+                        // Undo what can be, the error that started it is the one reported
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Applies a step of a transaction that may have been applied before the crash, or
+     * even finished with its done record lost. Steps already done are skipped: the
+     * staged and trash names are used once, and a move whose target exists was made.
+     * Nothing is undone, a later command may have built on what the step did. The one
+     * thing redone wrongly is an rm of a path made again after a commit whose done
+     * record the crash lost; those records are forced by the next commit and at exit.
+     */
+    private static void redo(Step step) throws IOException {
+        if (step.op() == Op.MOVE && exists(step.other())) {
+            return;
+        }
+        apply(step);
+    }
+
+    private static void apply(Step step) throws IOException {
+        switch (step.op()) {
+            case MOVE, TRASH -> {
+                if (exists(step.path())) {
+                    Files.move(step.path(), step.other());
+                } else if (!exists(step.other()) && step.op() == Op.MOVE) {
+                    throw new NoSuchFileException(step.path().toString(), null, "No such file or directory");
+                }
+            }
+            case MKDIR -> {
+                if (!Files.isDirectory(step.path())) {
+                    Files.createDirectory(step.path());
+                }
+            }
+            case REPLACE -> {
+                if (exists(step.path())) {
+                    Files.move(step.path(), step.other(), StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            case APPEND -> {
+                if (exists(step.path())) {
+                    try (FileChannel from = FileChannel.open(step.path(), StandardOpenOption.READ);
+                            FileChannel to = FileChannel.open(step.other(), StandardOpenOption.WRITE)) {
+                        to.truncate(step.length());
+                        long position = step.length();
+                        long size = from.size();
+                        for (long done = 0; done < size;) {
+                            done += from.transferTo(done, size - done, to.position(position + done));
+                        }
+                    }
+                }
+            }
+            default -> throw new IllegalStateException(step.op() + " is not a step");
+        }
+    }
+
+    private static void undo(Step step) throws IOException {
+        switch (step.op()) {
+            case MOVE, TRASH -> {
+                if (exists(step.other()) && !exists(step.path())) {
+                    Files.move(step.other(), step.path());
+                }
+            }
+            case MKDIR -> Files.deleteIfExists(step.path());
+            case REPLACE -> {
+                if (exists(step.other()) && !exists(step.path())) {
+                    Files.move(step.other(), step.path());
+                }
+            }
+            case APPEND -> {
+                if (exists(step.other())) {
+                    try (FileChannel to = FileChannel.open(step.other(), StandardOpenOption.WRITE)) {
+                        to.truncate(step.length());
+                    }
+                }
+            }
+            default -> throw new IllegalStateException(step.op() + " is not a step");
+        }
+    }
+
+    // Removes what the applied transaction kept for its undo
+    private static void purge(List<Step> steps, List<Path> staged) throws IOException {
+        FileTrees trees = new FileTrees(1);
+        for (Step step : steps) {
+            if (step.op() == Op.TRASH && exists(step.other())) {
+                trees.delete(step.other());
+            }
+        }
+        discard(staged);
+    }
+
+    private static void discard(List<Path> staged) throws IOException {
+        for (Path path : staged) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    // Empties a large journal once every transaction in it has ended
+    private void compact() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (written < compactAt || committing > 0) {
+                    return;
+                }
+                appendChannel.force(false);
+                lock.release();
+                FileLock exclusive = lockChannel.tryLock();
+                try {
+                    if (exclusive != null) {
+                        lockChannel.truncate(0);
+                        written = 0;
+                        synced = 0;
+                    }
+                    // Another process has it open, try again after as much more
+                    compactAt = written + COMPACT_SIZE;
+                } finally {
+                    if (exclusive != null) {
+                        exclusive.release();
+                    }
+                    lock = lockChannel.lock(0, Long.MAX_VALUE, true);
+                }
+            }
+        }
+    }
+
+    // Appends the records in one write, returns the journal's length after them
+    private synchronized long append(byte[] records) throws IOException {
+        open();
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) {
+            appendChannel.write(buffer);
+        }
+        written += records.length;
+        return written;
+    }
+
+    // Forces the journal unless a force that started after the records were written covered them
+    private void sync(long upTo) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= upTo) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = written;
+                syncs++;
+            }
+            appendChannel.force(false);
+            synced = target;
+        }
+    }
+
+    private synchronized void open() throws IOException {
+        if (appendChannel != null) {
+            return;
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        lockChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        appendChannel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Shared by every interpreter using the journal; recovery and compaction need it alone
+        lock = lockChannel.lock(0, Long.MAX_VALUE, true);
+        written = appendChannel.size();
+        synced = written;
+    }
+
+    private static byte[] record(long id, Op op, Path path, Path other, long length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(id);
+        payload.writeByte(op.ordinal());
+        payload.writeUTF(path == null ? "" : path.toString());
+        payload.writeUTF(other == null ? "" : other.toString());
+        payload.writeLong(length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.size() + 8);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+        return record.toByteArray();
+    }
+
+    private Path path(String text) {
+        return text.isEmpty() ? null : file.getFileSystem().getPath(text);
+    }
+
+    // The file store the rename of path happens on, found from the nearest directory that exists
+    private static FileStore store(Path path) throws IOException {
+        Path directory = path.getParent() != null ? path.getParent() : path;
+        while (!exists(directory) && directory.getParent() != null) {
+            directory = directory.getParent();
+        }
+        return Files.getFileStore(directory);
+    }
+
+    private static Path absolute(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static boolean exists(Path path) {
+        return Files.exists(path, LinkOption.NOFOLLOW_LINKS);
+    }
+}
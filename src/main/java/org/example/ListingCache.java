@@ -0,0 +1,112 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * Keeps the sorted listing of recently used directories so that repeated ls calls
+ * do not list and sort the same directory again. An entry is dropped when the
+ * WatchService reports a change in its directory, and the directory's modification
+ * time is checked as well because some platforms deliver watch events late.
+ */
+public class ListingCache {
+    private final Map<Path, Entry> entries;
+    private WatchService watcher;
+    private boolean watchUnavailable;
+    private long hits;
+    private long misses;
+
+    private record Entry(String[] names, FileTime modified, WatchKey key) {
+    }
+
+    public ListingCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                if (size() > capacity) {
+                    cancel(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns every entry of the directory, hidden ones included, sorted by name
+    public synchronized String[] list(Path dir) throws IOException {
+        if (!FileSystemBackends.isDisk(dir.getFileSystem())) {
+            // Cheaper to list than to keep fresh: its times only change once per millisecond
+            return read(dir);
+        }
+        processEvents();
+        FileTime modified = Files.getLastModifiedTime(dir);
+        Entry entry = entries.get(dir);
+        if (entry != null && entry.modified().equals(modified)) {
+            hits++;
+            return entry.names();
+        }
+
+        misses++;
+        WatchKey key = entry != null && entry.key() != null && entry.key().isValid() ? entry.key() : register(dir);
+        String[] sorted = read(dir);
+        entries.put(dir, new Entry(sorted, modified, key));
+        return sorted;
+    }
+
+    private static String[] read(Path dir) throws IOException {
+        List<String> names = new ArrayList<>();
+        Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        String[] sorted = names.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    public synchronized String stats() {
+        return "ls cache: " + hits + " hits, " + misses + " misses, " + entries.size() + " directories";
+    }
+
+    private void processEvents() {
+        if (watcher == null) {
+            return;
+        }
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            key.pollEvents();
+            Path dir = (Path) key.watchable();
+            Entry entry = entries.get(dir);
+            if (entry != null && entry.key() == key) {
+                entries.remove(dir);
+            }
+            key.cancel();
+        }
+    }
+
+    private WatchKey register(Path dir) {
+        if (watchUnavailable) {
+            return null;
+        }
+        try {
+            if (watcher == null) {
+                watcher = dir.getFileSystem().newWatchService();
+            }
+            return dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Fall back to the modification time check alone
+            watchUnavailable = true;
+            return null;
+        }
+    }
+
+    private static void cancel(Entry entry) {
+        if (entry.key() != null) {
+            entry.key().cancel();
+        }
+    }
+}
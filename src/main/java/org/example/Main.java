@@ -1,14 +1,158 @@
 package org.example;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Main {
+    // Bytes handed to one transferTo call by cat > file
+    private static final long TRANSFER_SIZE = 8L << 20;
+
+    // Errors listed after a recursive rm or cp, the rest are only counted
+    private static final int MAX_ERRORS_SHOWN = 20;
+
+    // Entries listed by history without a count, and matches listed by history -s
+    private static final int HISTORY_SHOWN = 20;
+
+    // Shared by all instances, so every directory is listed and watched only once
+    private static final ListingCache LISTING_CACHE = new ListingCache(Integer.getInteger("cli.lsCacheSize", 64));
+
+    // Built-in commands by name, String keys cache their hash so a lookup hashes each name once
+    private static final Map<String, Command> COMMANDS = new HashMap<>(64);
+
+    static {
+        register("pwd", (cli, command) -> cli.out.println(cli.pwd()));
+        register("cd", (cli, command) -> cli.cd(command.length > 1 ? command[1] : ""));
+        register("ls", Main::lsCommand);
+        register("stats", (cli, command) -> cli.out.println(cli.stats()).print(Metrics.report()));
+        register("mkdir", (cli, command) -> cli.mkdir(Arrays.copyOfRange(command, 1, command.length)));
+        register("rmdir", (cli, command) -> cli.out.println(cli.rmdir(command[1]) ? "Directory removed." : ""));
+        register("touch", (cli, command) -> cli.touch(Arrays.copyOfRange(command, 1, command.length)));
+        register("mv", Main::mv);
+        register("rm", Main::rm);
+        register("cp", Main::cp);
+        register("cat", Main::catOrg);
+        register("cmp", Main::cmp);
+        register("diff", Main::diff);
+        register("head", Main::head);
+        register("tail", Main::tail);
+        register("wc", Main::wc);
+        register("sort", Main::sort);
+        register("find", Main::find);
+        register("grep", Main::grep);
+        register("index", Main::index);
+        register("sha256sum", Main::checksum);
+        register("md5sum", Main::checksum);
+        register("dedupe", Main::dedupe);
+        register("begin", Main::begin);
+        register("commit", Main::commit);
+        register("rollback", Main::rollback);
+        register("history", Main::historyCommand);
+        register("jobs", Main::jobsCommand);
+        register("wait", Main::waitCommand);
+        register("kill", Main::killCommand);
+        register("help", Main::helpCommand);
+    }
+
     private Path currentDirectory;
+    // Command results, and errors kept apart so a redirect can tell them from the results
+    private final OutputSink out;
+    private final OutputSink err;
+    private BufferedReader input;
+    private History history;
+    private int parallelism = Integer.getInteger("cli.parallelism", Runtime.getRuntime().availableProcessors());
+    // Shared with the copies running the background jobs
+    private final Jobs jobs;
+    // Bytes copied or read by cat, mv and wc, shown by jobs
+    private final AtomicLong bytesProcessed = new AtomicLong();
+    // Between begin and commit mv, rm, mkdir and cat > file are planned into this instead of run
+    private Journal.Transaction transaction;
+    // This session's journal and hash cache instead of the ones of its file system, set by tests
+    private Journal journal;
+    private HashCache hashCache;
+    // Which words of the command being run were operators on its command line; null when the
+    // caller built the argv itself, then ">" and the like are operators by their text
+    private BitSet operators;
 
     public Main() {
-        this.currentDirectory = Paths.get(System.getProperty("user.dir"));
+        this(FileSystems.getDefault());
+    }
+
+    // A session on the given file system, see FileSystemBackends
+    public Main(FileSystem fileSystem) {
+        this.currentDirectory = FileSystemBackends.workingDirectory(fileSystem);
+        this.out = OutputSink.stdout();
+        this.err = OutputSink.stderr();
+        this.jobs = new Jobs();
+    }
+
+    // A daemon session, started in the client's directory with output going to the client
+    Main(Path directory, OutputSink out, OutputSink err) {
+        this.currentDirectory = directory;
+        this.out = out;
+        this.err = err;
+        this.jobs = new Jobs();
+    }
+
+    // A copy for a background job: same directory and jobs, output to the sink, no input
+    private Main(Main parent, OutputSink sink) {
+        this.currentDirectory = parent.currentDirectory;
+        this.parallelism = parent.parallelism;
+        this.journal = parent.journal;
+        this.hashCache = parent.hashCache;
+        this.out = sink;
+        this.err = sink;
+        this.jobs = parent.jobs;
+        this.input = new BufferedReader(Reader.nullReader());
+    }
+
+    Main copy(OutputSink sink) {
+        return new Main(this, sink);
+    }
+
+    public long bytesProcessed() {
+        return bytesProcessed.get();
+    }
+
+    // Bytes read from a file and written to the output or another file
+    private void copied(long bytes) {
+        bytesProcessed.addAndGet(bytes);
+        Metrics.add(Metrics.Counter.BYTES_READ, bytes);
+        Metrics.add(Metrics.Counter.BYTES_WRITTEN, bytes);
+    }
+
+    // Number of worker threads used by the recursive rm and cp, and by mv across file systems
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    // Keeps this session's transactions out of the process-wide journal, the caller closes it
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // Keeps this session's hashes out of the process-wide cache
+    void setHashCache(HashCache hashCache) {
+        this.hashCache = hashCache;
     }
 
     public void cd(String path) {
@@ -18,199 +162,575 @@ public class Main {
         } else if (Files.isDirectory(newPath)) {
             currentDirectory = newPath;
         } else {
-            System.out.println("Directory not found: " + path);
+            err.println("Directory not found: " + path);
         }
     }
 
-    public String pwd() {
-        return currentDirectory.toString();
+    public OutputSink out() {
+        return out;
+    }
+
+    public OutputSink err() {
+        return err;
+    }
+
+    // Writes out everything the commands printed so far
+    public void flush() {
+        out.flush();
+        err.flush();
     }
 
-    public boolean mkdir(String... dirPaths) {
-        boolean allCreated = true;
+    Path resolve(String path) {
+        return currentDirectory.resolve(path);
+    }
 
-        for (String path : dirPaths) {
-            File newDir = new File(currentDirectory.toFile(), path);
+    public String pwd() {
+        return currentDirectory.toString();
+    }
 
-            // Use mkdirs() to create any necessary parent directories
-            if (newDir.exists()) {
-                System.out.println("Directory already exists: " + path);
-                allCreated = false; // At least one directory already existed
-            } else if (newDir.mkdirs()) {
-                System.out.println("Directory created: " + path);
+    // Usage: mkdir [-p] [-v] <dir>..., -p accepts directories that exist, -v lists every directory created
+    public boolean mkdir(String... args) {
+        boolean existingOk = false;
+        boolean verbose = false;
+        List<Path> targets = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("-p")) {
+                existingOk = true;
+            } else if (arg.equals("-v")) {
+                verbose = true;
             } else {
-                System.out.println("Failed to create directory: " + path);
-                allCreated = false; // At least one directory could not be created
+                targets.add(currentDirectory.resolve(arg));
+            }
+        }
+        if (targets.isEmpty()) {
+            err.println("Invalid command. Usage: mkdir [-p] [-v] <dir>...");
+            return false;
+        }
+        if (transaction != null) {
+            try {
+                for (Path target : targets) {
+                    transaction.mkdir(target, existingOk);
+                }
+                return true;
+            } catch (IOException e) {
+                err.println("mkdir: " + e.getMessage());
+                transaction.fail();
+                return false;
             }
         }
 
+        FileTrees trees = new FileTrees(parallelism);
+        Queue<Path> made = verbose ? new ConcurrentLinkedQueue<>() : null;
+        boolean allCreated = trees.createDirectories(targets, existingOk, made);
+        if (verbose) {
+            Path base = currentDirectory.toAbsolutePath().normalize();
+            made.stream().sorted().forEach(dir -> out.println("Directory created: " + base.relativize(dir)));
+        } else if (trees.createdDirectories() > 0) {
+            out.println("mkdir: created " + trees.createdDirectories() + " directories");
+        }
+        printErrors("mkdir", trees.errors());
         return allCreated;
     }
 
     public boolean rmdir(String dirName) {
-        File dirToRemove = new File(currentDirectory.toFile(), dirName);
+        Path dirToRemove = currentDirectory.resolve(dirName);
 
-        if (!dirToRemove.exists() || !dirToRemove.isDirectory()) {
-            System.out.println("Directory does not exist or is not a directory: " + dirName);
+        if (!Files.exists(dirToRemove) || !Files.isDirectory(dirToRemove)) {
+            err.println("Directory does not exist or is not a directory: " + dirName);
             return false;
         }
 
-        if (dirToRemove.list().length > 0) {
-            System.out.println("Directory is not empty: " + dirName);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dirToRemove)) {
+            if (entries.iterator().hasNext()) {
+                err.println("Directory is not empty: " + dirName);
+                return false;
+            }
+        } catch (IOException e) {
+            err.println("Failed to delete directory: " + dirName);
             return false;
         }
 
-        if (!dirToRemove.delete()) {
-            System.out.println("Failed to delete directory: " + dirName);
+        try {
+            Files.delete(dirToRemove);
+        } catch (IOException e) {
+            err.println("Failed to delete directory: " + dirName);
             return false;
         }
+        Metrics.increment(Metrics.Counter.DELETES);
         return true;
     }
 
     public String[] ls() {
-        File dir = currentDirectory.toFile();
-        File[] filesArray;
-        filesArray = dir.listFiles((file) -> !file.getName().startsWith("."));
-
-        assert filesArray != null;
-        String[] fileNames = new String[filesArray.length];
-        for (int i = 0; i < filesArray.length; i++) {
-            fileNames[i] = filesArray[i].getName();
-        }
-        return fileNames;
+        String[] names = listing();
+        return Arrays.stream(names).filter(name -> !name.startsWith(".")).toArray(String[]::new);
     }
 
     public String[] ls(String option) {
-        File dir = currentDirectory.toFile();
-        File[] filesArray;
+        String[] names = listing();
         switch (option) {
             case "-a":
-                filesArray = dir.listFiles();
-                break;
+                return names.clone();
 
             case "-r":
-                filesArray = dir.listFiles();
-                if (filesArray != null) {
-                    Arrays.sort(filesArray, Collections.reverseOrder());
+                // Hidden entries stay hidden, as without -r
+                String[] visible = ls();
+                String[] reversed = new String[visible.length];
+                for (int i = 0; i < visible.length; i++) {
+                    reversed[i] = visible[visible.length - 1 - i];
                 }
-                break;
+                return reversed;
             default:
-                filesArray = dir.listFiles((file) -> !file.getName().startsWith("."));
-                if (filesArray != null) {
-                    Arrays.sort(filesArray);
+                return ls();
+        }
+    }
+
+    // Prints one line per entry as soon as it is read, without collecting the directory first
+    public void lsLong() {
+        Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(currentDirectory,
+                entry -> !entry.getFileName().toString().startsWith("."))) {
+            for (Path entry : entries) {
+                try {
+                    out.println(longFormat(readAttributes(entry), entry.getFileName().toString()));
+                } catch (IOException e) {
+                    err.println("ls: cannot access '" + entry.getFileName() + "': " + e.getMessage());
                 }
-                break;
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            err.println("ls: cannot open directory '" + currentDirectory + "': " + e.getMessage());
+        }
+    }
+
+    public void lsRecursive(boolean longFormat) {
+        Path root = currentDirectory;
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(root) && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+                    if (!dir.equals(root)) {
+                        print(dir, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!file.getFileName().toString().startsWith(".")) {
+                        print(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    err.println("ls: cannot access '" + root.relativize(file) + "': " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private void print(Path path, BasicFileAttributes attrs) throws IOException {
+                    String name = root.relativize(path).toString();
+                    if (longFormat && !(attrs instanceof PosixFileAttributes)) {
+                        // Other file systems, an in-memory one, hand out basic attributes
+                        attrs = readAttributes(path);
+                    }
+                    out.println(longFormat ? longFormat(attrs, name) : name);
+                }
+            });
+        } catch (IOException e) {
+            err.println("ls: cannot open directory '" + currentDirectory + "': " + e.getMessage());
+        }
+    }
+
+    // A single stat call per entry: the POSIX attributes already contain size and times
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException e) {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
         }
+    }
+
+    // Loaded by the first sha256sum, md5sum or dedupe, shared like the ls cache
+    private static final class Hashes {
+        static final HashCache CACHE = new HashCache(HashCache.defaultFile());
+    }
+
+    // Opened by the first begin, or at startup when a crash left transactions to finish
+    private static final class Journaling {
+        static final Journal JOURNAL = new Journal(Journal.defaultFile());
+    }
+
+    // The hash caches and journals of the in-memory file systems, each kept in its own
+    private static final class InMemory {
+        static final Map<FileSystem, HashCache> HASHES = new ConcurrentHashMap<>();
+        static final Map<FileSystem, Journal> JOURNALS = new ConcurrentHashMap<>();
+    }
 
-        assert filesArray != null;
+    // Built on the first ls -l, java.time is some 60 classes that startup does not need
+    private static final class TimeFormat {
+        static final DateTimeFormatter LS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+                .withZone(ZoneId.systemDefault());
+    }
+
+    private static String longFormat(BasicFileAttributes attrs, String name) {
+        char type = attrs.isDirectory() ? 'd' : attrs.isSymbolicLink() ? 'l' : '-';
+        // On Unix the attributes handed out by walkFileTree are POSIX attributes as well
+        String permissions = attrs instanceof PosixFileAttributes posix
+                ? PosixFilePermissions.toString(posix.permissions())
+                : "?????????";
+        String modified = TimeFormat.LS.format(attrs.lastModifiedTime().toInstant());
+        return String.format("%c%s %12d %s %s", type, permissions, attrs.size(), modified, name);
+    }
+
+    // Sorted names of every entry in the current directory, served from the listing cache
+    private String[] listing() {
+        try {
+            return LISTING_CACHE.list(currentDirectory.toAbsolutePath().normalize());
+        } catch (IOException e) {
+            err.println("ls: cannot access '" + currentDirectory + "': " + e.getMessage());
+            return new String[0];
+        }
+    }
 
-        // loop converts Array of files to array of String
-        String[] fileNames = new String[filesArray.length];
-        for (int i = 0; i < filesArray.length; i++) {
-            fileNames[i] = filesArray[i].getName();
+    // ls with names, as given by a glob: files are printed as named, directories listed after them
+    private boolean lsOperands(String[] operands) {
+        boolean ok = true;
+        List<String> directories = new ArrayList<>();
+        for (String operand : operands) {
+            Path path = currentDirectory.resolve(operand);
+            if (Files.isDirectory(path)) {
+                directories.add(operand);
+            } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                out.println(operand);
+            } else {
+                err.println("ls: cannot access '" + operand + "': No such file or directory");
+                ok = false;
+            }
+        }
+        boolean headers = operands.length > 1;
+        for (int i = 0; i < directories.size(); i++) {
+            String directory = directories.get(i);
+            if (headers) {
+                out.println((i > 0 || directories.size() < operands.length ? "\n" : "") + directory + ":");
+            }
+            try {
+                for (String name : LISTING_CACHE.list(currentDirectory.resolve(directory).toAbsolutePath().normalize())) {
+                    if (!name.startsWith(".")) {
+                        out.println(name);
+                    }
+                }
+            } catch (IOException e) {
+                err.println("ls: cannot access '" + directory + "': " + e.getMessage());
+                ok = false;
+            }
         }
-        return fileNames;
+        return ok;
+    }
+
+    public String stats() {
+        return LISTING_CACHE.stats();
     }
 
     public boolean mv(String[] command) {
         if (command.length < 3) {
-            System.out.println("Invalid command. Usage: mv <source> <target>");
+            err.println("Invalid command. Usage: mv <source> <target>");
             return false;
         }
 
-        File targetFile = new File(currentDirectory.toFile(), command[command.length - 1]);
+        // Check every source first so a batch with a typo does not move anything. A
+        // transaction checks them against what it planned instead
+        List<Path> sources = new ArrayList<>();
         for (int i = 1; i < command.length - 1; i++) {
-            File sourceFile = new File(currentDirectory.toFile(), command[i]);
-            if (!sourceFile.exists()) {
-                System.out.println("mv: cannot stat '" + sourceFile.getPath() + "': No such file or directory");
+            Path sourceFile = currentDirectory.resolve(command[i]);
+            if (transaction == null && !Files.exists(sourceFile)) {
+                err.println("mv: cannot stat '" + sourceFile.toString() + "': No such file or directory");
                 return false;
             }
+            sources.add(sourceFile);
+        }
+        Path target = currentDirectory.resolve(command[command.length - 1]);
+        if (transaction != null) {
             try {
-                Path destination = targetFile.isDirectory() ? targetFile.toPath().resolve(sourceFile.getName())
-                        : targetFile.toPath();
-                Files.move(sourceFile.toPath(), destination, StandardCopyOption.REPLACE_EXISTING);
+                for (Path source : sources) {
+                    transaction.move(source, target);
+                }
+                return true;
             } catch (IOException e) {
-                System.out.println("An error occurred while moving the file: " + e.getMessage());
+                err.println("mv: " + e.getMessage());
+                transaction.fail();
                 return false;
             }
         }
-        return true;
+        return new MoveEngine(parallelism, out, err, bytesProcessed).move(sources, target);
     }
 
     public boolean rm(String[] command) {
         if (command.length < 2) {
-            System.out.println("Missing argument for rm.");
+            err.println("Missing argument for rm.");
             return false;
         }
+        if (transaction != null) {
+            boolean recursive = command[1].equals("-r") || command[1].equals("-R");
+            try {
+                for (int i = recursive ? 2 : 1; i < command.length; i++) {
+                    transaction.delete(currentDirectory.resolve(command[i]), recursive);
+                }
+                return true;
+            } catch (IOException e) {
+                err.println("rm: " + e.getMessage());
+                transaction.fail();
+                return false;
+            }
+        }
+        if (command[1].equals("-r") || command[1].equals("-R")) {
+            if (command.length < 3) {
+                err.println("Missing argument for rm.");
+                return false;
+            }
+            FileTrees trees = new FileTrees(parallelism);
+            boolean allDeleted = true;
+            for (int i = 2; i < command.length; i++) {
+                allDeleted &= trees.delete(currentDirectory.resolve(command[i]));
+            }
+            printErrors("rm", trees.errors());
+            return allDeleted;
+        }
         boolean allDeleted = true;
         for (int i = 1; i < command.length; i++) {
-            File file = new File(currentDirectory.toFile(), command[i]);
-            if (!file.exists() || !file.delete()) {
-                System.out.println("Failed to delete file: " + command[i]);
+            Path file = currentDirectory.resolve(command[i]);
+            if (!Files.exists(file) || !delete(file)) {
+                err.println("Failed to delete file: " + command[i]);
                 allDeleted = false;
+            } else {
+                Metrics.increment(Metrics.Counter.DELETES);
             }
         }
         return allDeleted;
     }
 
+    private static boolean delete(Path file) {
+        try {
+            Files.delete(file);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean cp(String[] command) {
+        boolean recursive = command.length > 1 && (command[1].equals("-r") || command[1].equals("-R"));
+        int first = recursive ? 2 : 1;
+        if (command.length - first < 2) {
+            err.println("Invalid command. Usage: cp [-r] <source> <target>");
+            return false;
+        }
+
+        Path target = currentDirectory.resolve(command[command.length - 1]).normalize();
+        FileTrees trees = new FileTrees(parallelism);
+        boolean allCopied = true;
+        for (int i = first; i < command.length - 1; i++) {
+            Path source = currentDirectory.resolve(command[i]).normalize();
+            if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+                err.println("cp: cannot stat '" + command[i] + "': No such file or directory");
+                allCopied = false;
+                continue;
+            }
+            if (Files.isDirectory(source) && !recursive) {
+                err.println("cp: -r not specified; omitting directory '" + command[i] + "'");
+                allCopied = false;
+                continue;
+            }
+            Path destination = Files.isDirectory(target) ? target.resolve(source.getFileName().toString()) : target;
+            if (destination.startsWith(source)) {
+                err.println("cp: cannot copy '" + command[i] + "' into itself");
+                allCopied = false;
+                continue;
+            }
+            allCopied &= trees.copy(source, destination);
+        }
+        printErrors("cp", trees.errors());
+        return allCopied;
+    }
+
+    private void printErrors(String command, Map<Path, String> errors) {
+        if (errors.isEmpty()) {
+            return;
+        }
+        err.println(command + ": " + errors.size() + " error(s):");
+        int shown = 0;
+        for (Map.Entry<Path, String> error : errors.entrySet()) {
+            if (shown++ == MAX_ERRORS_SHOWN) {
+                err.println("  ... and " + (errors.size() - MAX_ERRORS_SHOWN) + " more");
+                break;
+            }
+            err.println("  " + error.getKey() + ": " + error.getValue());
+        }
+    }
+
     public void catOrg(String[] command) {
-        var cli = new Main();
-        if (command.length > 2 && (command[1].equals(">") || command[1].equals(">>"))) {
+        if (command.length > 2 && isOperator(command, 1) && (command[1].equals(">") || command[1].equals(">>"))) {
             String operator = command[1];
             String outputFileName = command[2];
             boolean append = operator.equals(">>");
 
-            System.out.println("Enter text (press exit to finish):");
-            cli.catFromInput(outputFileName, append);
+            out.println("Enter text (press exit to finish):");
+            catFromInput(outputFileName, append);
 
         } else if (command.length > 1) {
             String lastCommand = command[command.length - 2];
-            boolean isRedirect = lastCommand.equals(">") || lastCommand.equals(">>");
-            String[] fileNames = isRedirect ? Arrays.copyOfRange(command, 1, command.length - 2)
+            boolean operator = isOperator(command, command.length - 2);
+            boolean isRedirect = operator && (lastCommand.equals(">") || lastCommand.equals(">>"));
+            boolean compress = operator && (lastCommand.equals(">z") || lastCommand.equals(">>z"));
+            String[] fileNames = isRedirect || compress ? Arrays.copyOfRange(command, 1, command.length - 2)
                     : Arrays.copyOfRange(command, 1, command.length);
 
-            if (isRedirect) {
-                String operator = lastCommand;
+            if (isRedirect || compress) {
                 String outputFileName = command[command.length - 1];
-                boolean append = operator.equals(">>");
+                catToFile(outputFileName, lastCommand.startsWith(">>"), compress, fileNames);
+            } else {
+                // No redirection; print to console
+                cat(fileNames);
+            }
+        } else {
+            // Read from standard input if no files are specified
+            out.println("Enter text (press exit to finish):");
+            catFromInput(null, false);
+        }
+    }
 
-                try (BufferedWriter writer = new BufferedWriter(
-                        new FileWriter(new File(cli.currentDirectory.toFile(), outputFileName), append))) {
-                    for (String fileName : fileNames) {
-                        File file = new File(cli.currentDirectory.toFile(), fileName);
+    public void catToFile(String outputFileName, boolean append, String... fileNames) {
+        catToFile(outputFileName, append, false, fileNames);
+    }
 
-                        if (!file.exists()) {
-                            System.out.println("cat: " + fileName + ": No such file");
-                            continue;
-                        }
+    // With compress the output is gzipped on parallelism threads, gzip inputs are inflated either way
+    public void catToFile(String outputFileName, boolean append, boolean compress, String... fileNames) {
+        Path target = currentDirectory.resolve(outputFileName);
+        if (transaction == null) {
+            if (writeFiles(target, outputFileName, append, compress, fileNames)) {
+                out.println("Output written to " + outputFileName);
+            }
+            return;
+        }
+        // The inputs are read now, from disk, so none may be missing or changed by the transaction
+        for (String fileName : fileNames) {
+            Path file = currentDirectory.resolve(fileName);
+            if (transaction.changes(file)) {
+                err.println("cat: " + fileName + ": changed in this transaction, commit first");
+                transaction.fail();
+                return;
+            }
+            if (!Files.isRegularFile(file)) {
+                err.println("cat: " + fileName + (Files.isDirectory(file) ? ": Is a directory" : ": No such file"));
+                transaction.fail();
+                return;
+            }
+        }
+        // Written next to the target now, moved over it or appended to it at commit
+        try {
+            Path staged = transaction.stage(target);
+            if (writeFiles(staged, outputFileName, false, compress, fileNames)) {
+                transaction.write(staged, target, append);
+            } else {
+                transaction.fail();
+            }
+        } catch (IOException e) {
+            err.println("cat: " + outputFileName + ": " + e.getMessage());
+            transaction.fail();
+        }
+    }
 
-                        if (file.isDirectory()) {
-                            System.out.println("cat: " + fileName + ": Is a directory");
-                            continue;
-                        }
+    // False when writing failed or was interrupted
+    private boolean writeFiles(Path target, String outputFileName, boolean append, boolean compress,
+            String... fileNames) {
+        OpenOption[] options = append
+                ? new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND }
+                : new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING };
+
+        // Appending a gzip file to a gzip file gives a valid one, with a member more
+        try (FileChannel channel = FileChannel.open(target, options);
+                GzipWriter gzip = compress ? new GzipWriter(channel, parallelism) : null) {
+            for (String fileName : fileNames) {
+                Path file = currentDirectory.resolve(fileName);
+
+                if (!Files.exists(file)) {
+                    err.println("cat: " + fileName + ": No such file");
+                    continue;
+                }
+
+                if (Files.isDirectory(file)) {
+                    err.println("cat: " + fileName + ": Is a directory");
+                    continue;
+                }
+
+                if (Files.isSameFile(file, target)) {
+                    err.println("cat: " + fileName + ": input file is output file");
+                    continue;
+                }
 
-                        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                writer.write(line);
-                                writer.newLine();
-                            }
-                        } catch (IOException e) {
-                            System.out.println("cat: An error occurred while reading the file: " + e.getMessage());
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                        ReadableByteChannel decoded = Decompression.open(in)) {
+                    if (gzip != null || decoded != null) {
+                        if (!copy(decoded != null ? decoded : in, gzip != null ? gzip : channel, fileName)) {
+                            return false;
                         }
+                        continue;
                     }
-                    System.out.println("Output written to " + outputFileName);
+                    // transferTo lets the kernel copy the bytes (sendfile) without decoding them. In
+                    // chunks, so a background job that is killed stops within one chunk
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            err.println("cat: " + fileName + ": Interrupted");
+                            return false;
+                        }
+                        long copied = in.transferTo(position, Math.min(size - position, TRANSFER_SIZE), channel);
+                        position += copied;
+                        copied(copied);
+                    }
+                } catch (ClosedByInterruptException e) {
+                    err.println("cat: " + fileName + ": Interrupted");
+                    return false;
+                } catch (Decompression.UnavailableException e) {
+                    err.println("cat: " + e.getMessage());
                 } catch (IOException e) {
-                    System.out.println("cat: An error occurred while writing to file: " + e.getMessage());
+                    err.println("cat: An error occurred while reading the file: " + e.getMessage());
                 }
-            } else {
-                // No redirection; print to console
-                cli.cat(fileNames);
             }
-        } else {
-            // Read from standard input if no files are specified
-            System.out.println("Enter text (press exit to finish):");
-            cli.catFromInput(null, false);
+        } catch (ClosedByInterruptException e) {
+            err.println("cat: " + outputFileName + ": Interrupted");
+            return false;
+        } catch (IOException e) {
+            err.println("cat: An error occurred while writing to file: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // Copies through a pooled buffer, false when the thread was interrupted
+    private boolean copy(ReadableByteChannel in, WritableByteChannel target, String fileName) throws IOException {
+        ByteBuffer buffer = BufferPool.take();
+        try {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                copied(buffer.remaining());
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+                if (Thread.currentThread().isInterrupted()) {
+                    err.println("cat: " + fileName + ": Interrupted");
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            BufferPool.release(buffer);
         }
     }
 
@@ -221,17 +741,21 @@ public class Main {
         try {
             // Initialize the BufferedWriter only if outputFileName is provided
             if (outputFileName != null) {
-                writer = new BufferedWriter(
-                        new FileWriter(new File(currentDirectory.toFile(), outputFileName), append));
+                writer = Files.newBufferedWriter(currentDirectory.resolve(outputFileName), Charset.defaultCharset(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
             }
 
-            // Initialize the scanner
-            Scanner scanner = new Scanner(System.in);
-            System.out.println("Enter text (type 'exit' to finish):");
+            // Read from the same reader as the command loop so no buffered input is lost
+            if (input == null) {
+                input = new BufferedReader(new InputStreamReader(System.in));
+            }
+            out.println("Enter text (type 'exit' to finish):");
+            flush();
 
             while (true) {
-                if (scanner.hasNextLine()) { // Check if there's a line to read
-                    String line = scanner.nextLine();
+                String line = input.readLine();
+                if (line != null) { // Check if there's a line to read
                     if ("exit".equals(line)) { // Exit if user types "exit"
                         break;
                     }
@@ -239,7 +763,8 @@ public class Main {
                         writer.write(line);
                         writer.newLine();
                     } else { // Otherwise, echo input to the console
-                        System.out.println(line);
+                        out.println(line);
+                        out.flush();
                     }
                 } else {
                     // No more lines to read, can break the loop
@@ -247,14 +772,14 @@ public class Main {
                 }
             }
         } catch (IOException e) {
-            System.out.println("An error occurred while writing input: " + e.getMessage());
+            err.println("An error occurred while writing input: " + e.getMessage());
         } finally {
             // Close writer if it's not null
             if (writer != null) {
                 try {
                     writer.close();
                 } catch (IOException e) {
-                    System.out.println("Error closing writer: " + e.getMessage());
+                    err.println("Error closing writer: " + e.getMessage());
                 }
             }
         }
@@ -262,139 +787,1080 @@ public class Main {
 
     public void cat(String... fileNames) {
         for (String fileName : fileNames) {
-            File file = new File(currentDirectory.toFile(), fileName);
+            Path file = currentDirectory.resolve(fileName);
 
-            if (!file.exists()) {
-                System.out.println("cat: " + fileName + ": No such file");
+            if (!Files.exists(file)) {
+                err.println("cat: " + fileName + ": No such file");
                 continue;
             }
 
-            if (file.isDirectory()) {
-                System.out.println("cat: " + fileName + ": Is a directory");
+            if (Files.isDirectory(file)) {
+                err.println("cat: " + fileName + ": Is a directory");
                 continue;
             }
 
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                reader.lines().forEach(System.out::println);
+            // Copy raw bytes so the output is identical to the file, trailing newline or not.
+            // A gzip or zstd file, recognised by its magic bytes, is decompressed on the way
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                    ReadableByteChannel decoded = Decompression.open(in)) {
+                if (!copy(decoded != null ? decoded : in, out.channel(), fileName)) {
+                    return;
+                }
+            } catch (ClosedByInterruptException e) {
+                // Interrupted inside a read, the channel is closed already
+                err.println("cat: " + fileName + ": Interrupted");
+                return;
+            } catch (Decompression.UnavailableException e) {
+                err.println("cat: " + e.getMessage());
             } catch (IOException e) {
-                System.out.println("cat: An error occurred while reading the file: " + e.getMessage());
+                err.println("cat: An error occurred while reading the file: " + e.getMessage());
             }
         }
     }
 
-    public boolean touch(String filePath) {
-        File file = new File(filePath);
-        File parentDir = file.getParentFile();
-
-        if (parentDir != null && !parentDir.exists()) {
-            if (!parentDir.mkdirs()) {
-                System.out.println("Failed to create directory: " + parentDir.getPath());
+    // Usage: cmp <file1> <file2>, prints where the files first differ and nothing when they do not
+    public boolean cmp(String[] command) {
+        if (command.length != 3) {
+            err.println("Invalid command. Usage: cmp <file1> <file2>");
+            return false;
+        }
+        Path first = inputFile("cmp", command[1]);
+        Path second = inputFile("cmp", command[2]);
+        if (first == null || second == null) {
+            return false;
+        }
+        try (FileChannel a = FileChannel.open(first, StandardOpenOption.READ);
+                FileChannel b = FileChannel.open(second, StandardOpenOption.READ)) {
+            // Files of different sizes differ, no byte needs to be read to say so
+            if (a.size() != b.size()) {
+                out.println(command[1] + " " + command[2] + " differ: size " + a.size() + ", " + b.size());
                 return false;
             }
-        }
-        try {
-            if (file.exists()) {
-                return true;
-            } else if (!file.createNewFile()) {
-                System.out.println("File could not be created: " + file.getPath());
+            FileComparison comparison = new FileComparison(a, b, bytesProcessed);
+            try {
+                long at = comparison.mismatch(0, a.size());
+                if (at < 0) {
+                    return true;
+                }
+                long line = comparison.lines() + 1;
+                out.println(command[1] + " " + command[2] + " differ: byte " + (at + 1) + ", line " + line);
                 return false;
+            } finally {
+                comparison.release();
             }
+        } catch (ClosedByInterruptException | CancellationException e) {
+            err.println("cmp: Interrupted");
+            return false;
         } catch (IOException e) {
-            System.out.println("An error occurred while creating the file: " + e.getMessage());
+            err.println("cmp: " + e.getMessage());
             return false;
         }
-        return true;
     }
 
-    public void help() {
-        System.out.println(helpText());
-    }
-
-    private String helpText() {
-        return """
-                Commands:
-                  help               Show this help message
-                  ls                 List directory contents
-                  mv <source> <dest> Move or rename a file or directory
-                  rm <file>          Remove a file
-                  mkdir <dir>        Create a new directory
-                  rmdir <dir>        Remove an empty directory
-                  touch <file>       Create a new empty file or update a file's timestamp
-                  exit               Exit the application
-                """;
+    // Usage: diff <file1> <file2>, the changed lines in the normal diff format
+    public boolean diff(String[] command) {
+        if (command.length != 3) {
+            err.println("Invalid command. Usage: diff <file1> <file2>");
+            return false;
+        }
+        Path first = inputFile("diff", command[1]);
+        Path second = inputFile("diff", command[2]);
+        if (first == null || second == null) {
+            return false;
+        }
+        try (FileChannel a = FileChannel.open(first, StandardOpenOption.READ);
+                FileChannel b = FileChannel.open(second, StandardOpenOption.READ)) {
+            return !new Diff(a, b, out, bytesProcessed).run();
+        } catch (ClosedByInterruptException | CancellationException e) {
+            err.println("diff: Interrupted");
+            return false;
+        } catch (IOException e) {
+            err.println("diff: " + e.getMessage());
+            return false;
+        }
     }
 
-    public void writeToFile(String fileName, boolean append) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, append))) {
-            writer.write(helpText());
+    // The file to read, or null after telling why it cannot be
+    private Path inputFile(String command, String name) {
+        Path file = currentDirectory.resolve(name);
+        if (Files.isRegularFile(file)) {
+            return file;
         }
+        err.println(command + ": " + name + (Files.isDirectory(file) ? ": Is a directory" : ": No such file"));
+        return null;
     }
 
-    public static void main(String[] args) {
-        var cli = new Main();
-        Scanner scanner = new Scanner(System.in);
+    public boolean find(String[] command) {
+        String start = command.length > 1 && !command[1].equals("-name") ? command[1] : ".";
+        int nameOption = Arrays.asList(command).indexOf("-name");
+        if (nameOption >= 0 && nameOption == command.length - 1) {
+            err.println("find: missing argument to '-name'");
+            return false;
+        }
+        PathMatcher matcher;
+        try {
+            matcher = nameOption < 0 ? null
+                    : currentDirectory.getFileSystem().getPathMatcher("glob:" + command[nameOption + 1]);
+        } catch (PatternSyntaxException e) {
+            err.println("find: invalid pattern: " + command[nameOption + 1]);
+            return false;
+        }
 
-        while (true) {
-            System.out.print(cli.pwd() + "> ");
-            String input = scanner.nextLine();
-            String[] command = input.trim().split(" ");
+        Path root = currentDirectory.resolve(start).normalize();
+        if (!Files.exists(root)) {
+            err.println("find: '" + start + "': No such file or directory");
+            return false;
+        }
+        Path shown = currentDirectory.getFileSystem().getPath(start);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    print(dir);
+                    return FileVisitResult.CONTINUE;
+                }
 
-            try {
-                switch (command[0]) {
-                    case "pwd":
-                        System.out.println(cli.pwd());
-                        break;
-                    case "cd":
-                        cli.cd(command.length > 1 ? command[1] : "");
-                        break;
-                    case "ls":
-                        String[] files;
-                        if (command.length == 2) {
-                            files = cli.ls(command[1]);
-                        } else {
-                            files = cli.ls();
-                        }
-                        System.out.println(String.join("\n", files));
-                        break;
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    print(file);
+                    return FileVisitResult.CONTINUE;
+                }
 
-                    case "mkdir":
-                        cli.mkdir(Arrays.copyOfRange(command, 1, command.length));
-                        break;
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    err.println("find: '" + shown.resolve(root.relativize(file)) + "': " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
 
-                    case "rmdir":
-                        System.out.println(cli.rmdir(command[1]) ? "Directory removed." : "");
-                        break;
-                    case "touch":
-                        cli.touch(command[1]);
-                        break;
-                    case "mv":
-                        cli.mv(command);
-                        break;
-                    case "rm":
-                        cli.rm(command);
-                        break;
-                    case "cat":
-                        cli.catOrg(command);
-                        break;
-                    case "help": {
-                        if (command.length == 1)
-                            cli.help();
-                        else if (command.length == 3)
-                            cli.writeToFile(command[2], ">>".equals(command[1]));
-                    }
-                        break;
-                    case "exit": {
-                        scanner.close();
-                        return;
+                private void print(Path path) {
+                    Path name = path.getFileName();
+                    if (matcher == null || (name != null && matcher.matches(name))) {
+                        out.println(shown.resolve(root.relativize(path)));
                     }
-                    default:
-                        System.out.println("Unknown command: " + command[0]);
                 }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                System.out.println("Missing argument for command: " + command[0]);
-            } catch (IOException e) {
-                System.out.println("File operation error: " + e.getMessage());
-            }
+            });
+        } catch (IOException e) {
+            err.println("find: " + e.getMessage());
+            return false;
         }
+        return true;
+    }
+
+    public boolean grep(String[] command) {
+        if (command.length < 3) {
+            err.println("Invalid command. Usage: grep <pattern> <file>...");
+            return false;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(command[1]);
+        } catch (PatternSyntaxException e) {
+            err.println("grep: Invalid pattern: " + command[1]);
+            return false;
+        }
+
+        // A plain literal can be checked against the trigram index to skip files
+        int[] trigrams = isLiteral(command[1]) ? TrigramIndex.trigrams(command[1]) : null;
+        TrigramIndex index = null;
+        if (trigrams != null) {
+            try {
+                index = TrigramIndex.find(currentDirectory);
+            } catch (IOException e) {
+                err.println("grep: ignoring index: " + e.getMessage());
+            }
+        }
+
+        boolean prefix = command.length > 3;
+        boolean found = false;
+        for (int i = 2; i < command.length; i++) {
+            Path file = currentDirectory.resolve(command[i]);
+            if (!Files.exists(file)) {
+                err.println("grep: " + command[i] + ": No such file");
+                continue;
+            }
+            if (Files.isDirectory(file)) {
+                err.println("grep: " + command[i] + ": Is a directory");
+                continue;
+            }
+            try {
+                if (index != null && !index.mayContain(file, trigrams)) {
+                    continue;
+                }
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file)))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (pattern.matcher(line).find()) {
+                            out.println(prefix ? command[i] + ":" + line : line);
+                            found = true;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                err.println("grep: " + command[i] + ": " + e.getMessage());
+            }
+        }
+        return found;
+    }
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (".[]{}()*+?^$|\\".indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean index(String[] command) {
+        if (command.length != 3 || !command[1].equals("build")) {
+            err.println("Invalid command. Usage: index build <dir>");
+            return false;
+        }
+        Path root = currentDirectory.resolve(command[2]).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            err.println("index: " + command[2] + ": Not a directory");
+            return false;
+        }
+        try {
+            TrigramIndex previous = null;
+            if (Files.isRegularFile(root.resolve(TrigramIndex.FILE_NAME))) {
+                try {
+                    previous = TrigramIndex.load(root);
+                } catch (IOException e) {
+                    err.println("index: rebuilding from scratch: " + e.getMessage());
+                }
+            }
+            int read = TrigramIndex.build(root, previous);
+            out.println("Indexed " + TrigramIndex.load(root).size() + " files, " + read + " new or changed");
+            return true;
+        } catch (IOException e) {
+            err.println("index: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Usage: sha256sum <file>... or md5sum <file>..., the files are hashed in parallel
+    public boolean checksum(String[] command) {
+        if (command.length < 2) {
+            err.println("Invalid command. Usage: " + command[0] + " <file>...");
+            return false;
+        }
+        HashCache.Kind kind = command[0].equals("md5sum") ? HashCache.Kind.MD5 : HashCache.Kind.SHA256;
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i < command.length; i++) {
+            files.add(currentDirectory.resolve(command[i]));
+        }
+        boolean ok = true;
+        try {
+            List<Checksums.Result> results = checksums().hashAll(files, kind);
+            for (int i = 0; i < results.size(); i++) {
+                Checksums.Result result = results.get(i);
+                if (result.error() != null) {
+                    err.println(command[0] + ": " + command[i + 1] + ": " + result.error());
+                    ok = false;
+                } else {
+                    out.println(Checksums.hex(result.hash()) + "  " + command[i + 1]);
+                }
+            }
+        } catch (CancellationException e) {
+            err.println(command[0] + ": Interrupted");
+            ok = false;
+        }
+        return saveHashes(command[0]) && ok;
+    }
+
+    // Usage: dedupe [dir], lists groups of identical files without deleting any
+    public boolean dedupe(String[] command) {
+        String start = command.length > 1 ? command[1] : ".";
+        Path root = currentDirectory.resolve(start).normalize();
+        if (!Files.isDirectory(root)) {
+            err.println("dedupe: " + start + ": Not a directory");
+            return false;
+        }
+        Map<Path, String> errors = new TreeMap<>();
+        List<Checksums.Group> groups;
+        try {
+            groups = checksums().duplicates(root, errors);
+        } catch (IOException e) {
+            err.println("dedupe: " + start + ": " + e.getMessage());
+            return false;
+        } catch (CancellationException e) {
+            err.println("dedupe: Interrupted");
+            return false;
+        }
+
+        Path shown = currentDirectory.getFileSystem().getPath(start);
+        long duplicates = 0;
+        long reclaimable = 0;
+        for (Checksums.Group group : groups) {
+            out.println(group.size() + " bytes, " + group.files().size() + " copies:");
+            for (Path file : group.files()) {
+                out.println("  " + shown.resolve(root.relativize(file)));
+            }
+            duplicates += group.files().size() - 1;
+            reclaimable += group.size() * (group.files().size() - 1);
+        }
+        out.println("dedupe: " + groups.size() + " groups, " + duplicates + " duplicate files, " + reclaimable
+                + " bytes reclaimable");
+        printErrors("dedupe", errors);
+        return saveHashes("dedupe") && errors.isEmpty();
+    }
+
+    private Checksums checksums() {
+        return new Checksums(parallelism, hashCache(), bytesProcessed);
+    }
+
+    private boolean saveHashes(String command) {
+        try {
+            hashCache().save();
+            return true;
+        } catch (IOException e) {
+            err.println(command + ": hash cache: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // The paths in the hash cache and the journal are only good on the file system they came from
+    private HashCache hashCache() {
+        if (hashCache != null) {
+            return hashCache;
+        }
+        FileSystem fileSystem = currentDirectory.getFileSystem();
+        return FileSystemBackends.isDisk(fileSystem) ? Hashes.CACHE
+                : InMemory.HASHES.computeIfAbsent(fileSystem,
+                        key -> new HashCache(FileSystemBackends.home(key).resolve(".cli_hashes")));
+    }
+
+    private Journal journal() {
+        if (journal != null) {
+            return journal;
+        }
+        FileSystem fileSystem = currentDirectory.getFileSystem();
+        return FileSystemBackends.isDisk(fileSystem) ? Journaling.JOURNAL
+                : InMemory.JOURNALS.computeIfAbsent(fileSystem,
+                        key -> new Journal(FileSystemBackends.home(key).resolve(".cli_journal")));
+    }
+
+    // Usage: begin, later mv, rm, mkdir and cat > file only take effect at commit
+    public boolean begin(String[] command) {
+        if (transaction != null) {
+            err.println("begin: a transaction is already open");
+            return false;
+        }
+        transaction = journal().begin();
+        return true;
+    }
+
+    // Usage: commit, applies everything since begin or, when a step fails, none of it
+    public boolean commit(String[] command) {
+        if (transaction == null) {
+            err.println("commit: no transaction is open");
+            return false;
+        }
+        if (transaction.failed()) {
+            int planned = transaction.size();
+            discardTransaction();
+            err.println("commit: a command in the transaction failed, rolled back " + planned + " operations");
+            return false;
+        }
+        Journal.Transaction committing = transaction;
+        transaction = null;
+        try {
+            journal().commit(committing);
+            out.println("Committed " + committing.size() + " operations");
+            return true;
+        } catch (IOException e) {
+            err.println("commit: " + e.getMessage() + ", nothing was changed");
+            return false;
+        }
+    }
+
+    // Usage: rollback, drops everything since begin
+    public boolean rollback(String[] command) {
+        if (transaction == null) {
+            err.println("rollback: no transaction is open");
+            return false;
+        }
+        int planned = transaction.size();
+        discardTransaction();
+        out.println("Rolled back " + planned + " operations");
+        return true;
+    }
+
+    // A session that ends inside a transaction rolls it back
+    private void discardTransaction() {
+        if (transaction == null) {
+            return;
+        }
+        try {
+            journal().rollback(transaction);
+        } catch (IOException e) {
+            err.println("rollback: " + e.getMessage());
+        } finally {
+            transaction = null;
+        }
+    }
+
+    private static void closeJournal() {
+        if (!Files.exists(Journal.defaultFile())) {
+            return;
+        }
+        try {
+            Journaling.JOURNAL.close();
+        } catch (IOException e) {
+            System.err.println("journal: " + e.getMessage());
+        }
+    }
+
+    // Finishes the transactions a crash interrupted after their commit
+    private static void recoverJournal() {
+        if (!Files.exists(Journal.defaultFile())) {
+            return;
+        }
+        try {
+            for (String line : Journaling.JOURNAL.recover()) {
+                System.err.println(line);
+            }
+        } catch (IOException e) {
+            System.err.println("journal: " + e.getMessage());
+        }
+    }
+
+    public boolean head(String[] command) {
+        return headOrTail(command, false);
+    }
+
+    public boolean tail(String[] command) {
+        return headOrTail(command, true);
+    }
+
+    // Usage: head|tail [-n N] [-f] <file>..., -f only for tail
+    private boolean headOrTail(String[] command, boolean tail) {
+        int count = 10;
+        boolean follow = false;
+        List<String> fileNames = new ArrayList<>();
+        try {
+            for (int i = 1; i < command.length; i++) {
+                if (command[i].equals("-n")) {
+                    count = Integer.parseInt(command[++i]);
+                } else if (tail && command[i].equals("-f")) {
+                    follow = true;
+                } else {
+                    fileNames.add(command[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            err.println(command[0] + ": invalid number of lines");
+            return false;
+        }
+        if (fileNames.isEmpty() || (follow && fileNames.size() > 1)) {
+            err.println("Invalid command. Usage: " + (tail ? "tail [-n N] [-f] <file>" : "head [-n N] <file>..."));
+            return false;
+        }
+
+        boolean ok = true;
+        for (String fileName : fileNames) {
+            Path file = currentDirectory.resolve(fileName);
+            if (!Files.isRegularFile(file)) {
+                err.println(command[0] + ": " + fileName + (Files.isDirectory(file) ? ": Is a directory" : ": No such file"));
+                ok = false;
+                continue;
+            }
+            try {
+                if (fileNames.size() > 1) {
+                    out.println("==> " + fileName + " <==");
+                }
+                if (follow) {
+                    Tail.follow(file, count, out.channel(), out);
+                } else if (tail) {
+                    Tail.tail(file, count, out.channel());
+                } else {
+                    Tail.head(file, count, out.channel());
+                }
+            } catch (IOException e) {
+                err.println(command[0] + ": " + fileName + ": " + e.getMessage());
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    public boolean wc(String[] command) {
+        if (command.length < 2) {
+            err.println("Invalid command. Usage: wc <file>...");
+            return false;
+        }
+        boolean ok = true;
+        WordCount.Counts total = new WordCount.Counts(0, 0, 0);
+        for (int i = 1; i < command.length; i++) {
+            Path file = currentDirectory.resolve(command[i]);
+            if (!Files.isRegularFile(file)) {
+                err.println("wc: " + command[i] + (Files.isDirectory(file) ? ": Is a directory" : ": No such file"));
+                ok = false;
+                continue;
+            }
+            try {
+                WordCount.Counts counts = WordCount.count(file, parallelism);
+                out.printf("%8d %8d %10d %s%n", counts.lines(), counts.words(), counts.bytes(), command[i]);
+                bytesProcessed.addAndGet(counts.bytes());
+                Metrics.add(Metrics.Counter.BYTES_READ, counts.bytes());
+                total = new WordCount.Counts(total.lines() + counts.lines(), total.words() + counts.words(),
+                        total.bytes() + counts.bytes());
+            } catch (IOException e) {
+                err.println("wc: " + command[i] + ": " + e.getMessage());
+                ok = false;
+            }
+        }
+        if (command.length > 2) {
+            out.printf("%8d %8d %10d total%n", total.lines(), total.words(), total.bytes());
+        }
+        return ok;
+    }
+
+    // Usage: sort [-r] [-S size] <file>..., size like 512K, 64M or 2G
+    public boolean sort(String[] command) {
+        boolean reverse = false;
+        long memory = Long.getLong("cli.sortMemory", Runtime.getRuntime().maxMemory() / 4);
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i < command.length; i++) {
+            if (command[i].equals("-r")) {
+                reverse = true;
+            } else if (command[i].equals("-S") && i + 1 < command.length) {
+                memory = parseSize(command[++i]);
+                if (memory <= 0) {
+                    err.println("sort: invalid buffer size: " + command[i]);
+                    return false;
+                }
+            } else {
+                Path file = currentDirectory.resolve(command[i]);
+                if (!Files.isRegularFile(file)) {
+                    err.println("sort: " + command[i] + (Files.isDirectory(file) ? ": Is a directory" : ": No such file"));
+                    return false;
+                }
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            err.println("Invalid command. Usage: sort [-r] [-S size] <file>...");
+            return false;
+        }
+        try {
+            new ExternalSort(memory, parallelism, reverse).sort(files, out);
+            return true;
+        } catch (IOException e) {
+            err.println("sort: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static long parseSize(String size) {
+        try {
+            char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+            int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+            String digits = shift == 0 ? size : size.substring(0, size.length() - 1);
+            return Long.parseLong(digits) << shift;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    // Usage: touch [-v] <file>..., missing parents are created, -v lists every file
+    public boolean touch(String... args) {
+        boolean verbose = false;
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("-v")) {
+                verbose = true;
+            } else {
+                files.add(currentDirectory.resolve(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            err.println("Invalid command. Usage: touch [-v] <file>...");
+            return false;
+        }
+
+        FileTrees trees = new FileTrees(parallelism);
+        boolean allTouched = trees.touch(files, FileTime.from(Instant.now()));
+        if (verbose) {
+            for (String arg : args) {
+                if (!arg.equals("-v")) {
+                    out.println("touched: " + arg);
+                }
+            }
+        } else if (files.size() > 1) {
+            out.println("touch: created " + trees.createdFiles() + " files, updated " + trees.touchedFiles());
+        }
+        printErrors("touch", trees.errors());
+        return allTouched;
+    }
+
+    public void help() {
+        out.println(helpText());
+    }
+
+    String helpText() {
+        return """
+                Commands:
+                  help                           Show this help message
+                  cat <file>...                  Print the contents of files, gzip files are decompressed
+                  cat <file>... >z <out>         Write the files gzipped, >>z appends
+                  cmp <file1> <file2>            Print the first byte and line where two files differ
+                  diff <file1> <file2>           Print the lines that differ between two files
+                  grep <regex> <file>...         Print lines matching a pattern
+                  wc <file>...                   Count lines, words and bytes
+                  sort [-r] [-S size] <file>...  Sort lines, spilling to disk beyond the memory size
+                  find [dir] [-name <glob>]      List files below a directory
+                  index build <dir>              Build or update the trigram index used by grep
+                  sha256sum <file>...            Print SHA-256 checksums, md5sum prints MD5 ones
+                  dedupe [dir]                   List groups of identical files below a directory
+                  head [-n N] <file>             Print the first N lines (default 10)
+                  tail [-n N] [-f] <file>        Print the last N lines, -f keeps printing appended lines
+                  a | b                          Stream the output of a into b
+                  ls                             List directory contents
+                  ls -l                          List with permissions, size and modification time
+                  ls -R                          List subdirectories recursively (combine as -lR)
+                  ls <file>...                   List the named files and the contents of named directories
+                  *, ?, [a-z], **                Expand to the matching paths, ** crosses directories
+                  mv <source> <dest>             Move or rename a file or directory
+                  rm [-r] <file>                 Remove a file, or a directory tree with -r
+                  cp [-r] <src> <dest>           Copy files, or directory trees with -r
+                  begin                          Start a transaction: mv, rm, mkdir and cat > file wait for commit
+                  commit                         Apply the transaction, all of it or, if a step fails, none of it
+                  rollback                       Drop the transaction
+                  stats                          Show ls cache statistics, command latencies and I/O counters
+                  mkdir [-p] [-v] <dir>...       Create directories and their parents, a{1..3} or a{x,y} expand
+                  rmdir <dir>                    Remove an empty directory
+                  touch [-v] <file>...           Create empty files or update their timestamps
+                  history [N]                    List the last N commands, history -s <prefix> searches them
+                  !n, !!, !prefix                Run command n, the last command, or the last one starting with prefix
+                  <command> &                    Run a command in the background, its output is shown when it ends
+                  jobs                           List background jobs with their run time and bytes processed
+                  wait [id]                      Wait for a job, or all jobs, and show the output
+                  kill [id]                      Stop a job, the most recent one by default
+                  exit                           Exit the application
+                """;
+    }
+
+    public void writeToFile(String fileName, boolean append) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(currentDirectory.resolve(fileName),
+                Charset.defaultCharset(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer.write(helpText());
+        }
+    }
+
+    // Usage: [--metrics-file <file>] [--jfr] [--fs disk|memory] [-f <script> | --daemon]
+    public static void main(String[] args) throws IOException {
+        String script = null;
+        String fileSystem = "disk";
+        boolean daemon = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--daemon")) {
+                daemon = true;
+            } else if (args[i].equals("--jfr")) {
+                Metrics.enableEvents();
+            } else if (args[i].equals("--metrics-file") && i + 1 < args.length) {
+                writeMetricsAtExit(Paths.get(args[++i]));
+            } else if (args[i].startsWith("--metrics-file=")) {
+                writeMetricsAtExit(Paths.get(args[i].substring("--metrics-file=".length())));
+            } else if (args[i].equals("--fs") && i + 1 < args.length) {
+                fileSystem = args[++i];
+            } else if (args[i].startsWith("--fs=")) {
+                fileSystem = args[i].substring("--fs=".length());
+            } else if (args[i].equals("-f") && i + 1 < args.length) {
+                script = args[++i];
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        Main cli = null;
+        try {
+            cli = new Main(FileSystemBackends.open(fileSystem));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        if (daemon && !fileSystem.equals("disk")) {
+            // Clients send their directory on disk, a session elsewhere would not find it
+            System.err.println("--daemon only serves the disk");
+            System.exit(2);
+        }
+
+        recoverJournal();
+        if (daemon) {
+            runDaemon(Daemon.defaultSocket());
+        } else if (script != null) {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(script))) {
+                cli.runBatch(reader);
+            }
+        } else if (System.console() == null) {
+            // stdin or stdout is not a terminal, e.g. a script piped in
+            cli.runBatch(new BufferedReader(new InputStreamReader(System.in)));
+        } else {
+            cli.runInteractive();
+        }
+        closeJournal();
+    }
+
+    // Serves Client connections until the process is stopped
+    private static void runDaemon(Path socket) throws IOException {
+        Daemon daemon = new Daemon(socket);
+        try {
+            daemon.bind();
+        } catch (IOException e) {
+            System.err.println("daemon: " + e.getMessage());
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.close();
+            } catch (IOException e) {
+                System.err.println("daemon: " + e.getMessage());
+            }
+        }));
+        System.err.println("Listening on " + socket);
+        daemon.serve();
+    }
+
+    // A shutdown hook, so the metrics are also written when the session is ended with Ctrl-C
+    private static void writeMetricsAtExit(Path file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Metrics.writeTo(file);
+            } catch (IOException e) {
+                System.err.println("metrics: " + file + ": " + e.getMessage());
+            }
+        }));
+    }
+
+    // Output is flushed before every prompt, so the user sees each command's output when it ends
+    public void runInteractive() throws IOException {
+        input = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            while (true) {
+                jobs.reportFinished(out, err);
+                flush();
+                out.print(pwd()).print("> ");
+                out.flush();
+                String line = input.readLine();
+                if (line == null) {
+                    return;
+                }
+                line = expandHistory(line);
+                if (line == null) {
+                    continue;
+                }
+                record(line);
+                if (!execute(line)) {
+                    return;
+                }
+            }
+        } finally {
+            // Killed jobs stop at their next check, mv rolls back instead of leaving half a move
+            jobs.killAll();
+            awaitJobs();
+            discardTransaction();
+            flush();
+            if (history != null) {
+                history.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces a line that is a history reference: !! is the last command, !n entry n,
+     * !-n the n-th last and !text the last command starting with text. The command is
+     * echoed as it will run. Returns null when there is no such entry.
+     */
+    public String expandHistory(String line) {
+        if (!line.startsWith("!") || line.length() < 2) {
+            return line;
+        }
+        String reference = line.substring(1);
+        try {
+            String command;
+            if (reference.equals("!")) {
+                command = history().get(history().size());
+            } else if (reference.matches("-?\\d{1,9}")) {
+                int number = Integer.parseInt(reference);
+                command = history().get(number < 0 ? history().size() + 1 + number : number);
+            } else {
+                History.Entry entry = history().lastWithPrefix(reference);
+                command = entry == null ? null : entry.command();
+            }
+            if (command == null) {
+                err.println(line + ": event not found");
+                return null;
+            }
+            out.println(command);
+            return command;
+        } catch (IOException e) {
+            err.println("history: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void record(String line) {
+        if (line.isBlank()) {
+            return;
+        }
+        try {
+            if (!history().add(line)) {
+                Metrics.increment(Metrics.Counter.HISTORY_SKIPPED);
+            }
+        } catch (IOException e) {
+            err.println("history: " + e.getMessage());
+        }
+    }
+
+    // Opened on first use, so a script that never looks at the history never touches the file
+    History history() {
+        if (history == null) {
+            history = new History(History.defaultFile());
+        }
+        return history;
+    }
+
+    // Usage: history [N] lists the last N commands (default 20), history -s <prefix> searches
+    public boolean historyCommand(String[] command) {
+        try {
+            List<History.Entry> entries;
+            if (command.length == 3 && command[1].equals("-s")) {
+                entries = history().search(command[2], HISTORY_SHOWN);
+                Collections.reverse(entries);
+            } else if (command.length <= 2) {
+                int count = command.length == 2 ? Integer.parseInt(command[1]) : HISTORY_SHOWN;
+                if (count < 0) {
+                    throw new NumberFormatException();
+                }
+                entries = history().tail(count);
+            } else {
+                err.println("Invalid command. Usage: history [N] | history -s <prefix>");
+                return false;
+            }
+            for (History.Entry entry : entries) {
+                out.printf("%6d  %s%n", entry.number(), entry.command());
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            err.println("history: " + command[1] + ": numeric argument required");
+            return false;
+        } catch (IOException e) {
+            err.println("history: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public boolean jobsCommand(String[] command) {
+        for (Jobs.Job job : jobs.list()) {
+            out.println(Jobs.describe(job));
+        }
+        return true;
+    }
+
+    // Usage: wait [id], without an id waits for every job
+    public boolean waitCommand(String[] command) {
+        try {
+            if (command.length == 1) {
+                jobs.awaitAll(out, err);
+                return true;
+            }
+            Jobs.Job job = findJob("wait", command);
+            if (job == null) {
+                return false;
+            }
+            jobs.await(job, out, err);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("wait: Interrupted");
+            return false;
+        }
+    }
+
+    // Usage: kill [id], without an id stops the most recent job
+    public boolean killCommand(String[] command) {
+        Jobs.Job job = findJob("kill", command);
+        if (job == null) {
+            return false;
+        }
+        if (!jobs.kill(job)) {
+            err.println("kill: [" + job.id() + "]: job has already finished");
+            return false;
+        }
+        return true;
+    }
+
+    private Jobs.Job findJob(String name, String[] command) {
+        int id;
+        try {
+            id = command.length > 1 ? Integer.parseInt(command[1].startsWith("%") ? command[1].substring(1) : command[1]) : 0;
+        } catch (NumberFormatException e) {
+            err.println(name + ": " + command[1] + ": job id must be a number");
+            return null;
+        }
+        Jobs.Job job = jobs.find(id);
+        if (job == null) {
+            err.println(name + ": " + (id == 0 ? "no jobs" : id + ": no such job"));
+        }
+        return job;
+    }
+
+    // No prompt, output is written when a buffer fills up and at the end
+    public void runBatch(BufferedReader script) throws IOException {
+        input = script;
+        try {
+            String line;
+            while ((line = script.readLine()) != null) {
+                if (!execute(line)) {
+                    break;
+                }
+            }
+            awaitJobs();
+        } finally {
+            discardTransaction();
+            flush();
+        }
+    }
+
+    void awaitJobs() {
+        try {
+            jobs.awaitAll(out, err);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs one command line, returns false when the interpreter should exit. The output stays
+    // buffered until the caller flushes
+    public boolean execute(String line) {
+        List<Tokenizer.Token> tokens;
+        try {
+            tokens = Tokenizer.tokenize(line);
+        } catch (IllegalArgumentException e) {
+            err.println("Syntax error: " + e.getMessage());
+            return true;
+        }
+        if (tokens.isEmpty()) {
+            return true;
+        }
+        int background = Tokenizer.indexOf(tokens, Tokenizer.Type.BACKGROUND);
+        if (background == tokens.size() - 1 && background > 0) {
+            String command = line.substring(0, line.lastIndexOf('&')).trim();
+            Jobs.Job job = jobs.start(this, command, tokens.subList(0, background));
+            out.println("[" + job.id() + "] " + command);
+            return true;
+        }
+        if (background >= 0) {
+            err.println("Syntax error: unexpected '&'");
+            return true;
+        }
+        return execute(tokens);
+    }
+
+    // Runs a command already split into words, e.g. by the shell of a Client: none of them
+    // is an operator or a pattern, quoted or not
+    public boolean execute(String[] words) {
+        if (words.length == 0) {
+            return true;
+        }
+        List<Tokenizer.Token> tokens = new ArrayList<>(words.length);
+        for (String word : words) {
+            tokens.add(new Tokenizer.Token(Tokenizer.Type.WORD, word, true));
+        }
+        return execute(tokens);
+    }
+
+    // Runs a tokenized command line, in the foreground or as a background job
+    boolean execute(List<Tokenizer.Token> tokens) {
+        try {
+            tokens = BraceExpansion.expand(tokens);
+        } catch (IllegalArgumentException e) {
+            err.println("Syntax error: " + e.getMessage());
+            return true;
+        }
+        tokens = GlobExpansion.expand(tokens, currentDirectory);
+        if (Tokenizer.hasPipe(tokens)) {
+            Metrics.Histogram latency = Metrics.latency("pipeline");
+            long started = System.nanoTime();
+            CommandEvent event = Metrics.commandStarted();
+            try {
+                new Pipeline(this).run(Tokenizer.stages(tokens));
+            } finally {
+                Metrics.commandDone(latency, started, "pipeline", event);
+            }
+            return true;
+        }
+
+        String[] command = Tokenizer.words(tokens);
+        if (command[0].equals("exit")) {
+            return false;
+        }
+        Command handler = COMMANDS.get(command[0]);
+        if (handler == null) {
+            err.println("Unknown command: " + command[0]);
+            return true;
+        }
+        Metrics.Histogram latency = Metrics.latency(command[0]);
+        long started = System.nanoTime();
+        CommandEvent event = Metrics.commandStarted();
+        BitSet previous = operators;
+        operators = Tokenizer.operators(tokens);
+        try {
+            handler.execute(this, command);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            err.println("Missing argument for command: " + command[0]);
+        } catch (IOException e) {
+            err.println("File operation error: " + e.getMessage());
+        } finally {
+            operators = previous;
+            Metrics.commandDone(latency, started, command[0], event);
+        }
+        return true;
+    }
+
+    // Whether command[i] is an operator such as > rather than a word, e.g. a quoted '>'
+    private boolean isOperator(String[] command, int i) {
+        if (operators != null) {
+            return operators.get(i);
+        }
+        return command[i].startsWith(">");
+    }
+
+    // Adds a command to the interpreter, only from the static initializer: the map is not
+    // synchronized, sessions and jobs on other threads read it without a lock
+    private static void register(String name, Command command) {
+        COMMANDS.put(name, command);
+        // Created now so that running the command never allocates one
+        Metrics.latency(name);
+    }
+
+    private void lsCommand(String[] command) {
+        String[] files;
+        if (command.length == 2 && command[1].equals("-l")) {
+            lsLong();
+            return;
+        } else if (command.length == 2 && command[1].matches("-R|-lR|-Rl")) {
+            lsRecursive(command[1].contains("l"));
+            return;
+        } else if (command.length >= 2 && !command[1].startsWith("-")) {
+            lsOperands(Arrays.copyOfRange(command, 1, command.length));
+            return;
+        } else if (command.length == 2) {
+            files = ls(command[1]);
+        } else {
+            files = ls();
+        }
+        out.println(String.join("\n", files));
+    }
+
+    private void helpCommand(String[] command) throws IOException {
+        if (command.length == 1)
+            help();
+        else if (command.length == 3 && isOperator(command, 1))
+            writeToFile(command[2], ">>".equals(command[1]));
     }
 }
@@ -0,0 +1,193 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency of every command and counters of the I/O done by the commands, shown by
+ * stats and written to the --metrics-file at exit. Recording a command is a few
+ * atomic increments into arrays that exist up front, so it allocates nothing; the
+ * histogram of a command is created when the command is registered.
+ *
+ * With --jfr every command is also emitted as a JFR event, org.example.Command, for
+ * a recording started with -XX:StartFlightRecording or jcmd, or a RecordingStream.
+ */
+public final class Metrics {
+    public enum Counter {
+        BYTES_READ("bytes read"),
+        BYTES_WRITTEN("bytes written"),
+        FILES_TOUCHED("files touched"),
+        DIRECTORY_LISTINGS("directory listings"),
+        MOVES("moves"),
+        DELETES("deletes"),
+        // Longer than a history record holds
+        HISTORY_SKIPPED("commands not saved to history");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final AtomicLongArray COUNTERS = new AtomicLongArray(Counter.values().length);
+    private static final Map<String, Histogram> LATENCIES = new ConcurrentHashMap<>();
+    private static volatile boolean events = Boolean.getBoolean("cli.jfr");
+
+    private Metrics() {
+    }
+
+    public static void add(Counter counter, long amount) {
+        COUNTERS.addAndGet(counter.ordinal(), amount);
+    }
+
+    public static void increment(Counter counter) {
+        COUNTERS.incrementAndGet(counter.ordinal());
+    }
+
+    public static long count(Counter counter) {
+        return COUNTERS.get(counter.ordinal());
+    }
+
+    // The histogram of a command, created on first use
+    public static Histogram latency(String command) {
+        Histogram histogram = LATENCIES.get(command);
+        return histogram != null ? histogram : LATENCIES.computeIfAbsent(command, name -> new Histogram());
+    }
+
+    public static void enableEvents() {
+        events = true;
+    }
+
+    // Called as a command starts, the result goes to commandDone. Null without --jfr
+    static CommandEvent commandStarted() {
+        if (!events) {
+            return null;
+        }
+        CommandEvent event = new CommandEvent();
+        // Counted down now and up at the end, so the fields hold the command's own bytes
+        event.bytesRead = -count(Counter.BYTES_READ);
+        event.bytesWritten = -count(Counter.BYTES_WRITTEN);
+        event.begin();
+        return event;
+    }
+
+    static void commandDone(Histogram latency, long startNanos, String command, CommandEvent event) {
+        latency.record(System.nanoTime() - startNanos);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.bytesRead += count(Counter.BYTES_READ);
+                event.bytesWritten += count(Counter.BYTES_WRITTEN);
+                event.commit();
+            }
+        }
+    }
+
+    // Commands that ran at least once with their latency percentiles, then the counters
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s %8s %10s %10s %10s %10s%n", "command", "count", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(LATENCIES).entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.count() == 0) {
+                continue;
+            }
+            report.append(String.format("%-10s %8d %10s %10s %10s %10s%n", entry.getKey(), histogram.count(),
+                    duration(histogram.percentile(50)), duration(histogram.percentile(90)),
+                    duration(histogram.percentile(99)), duration(histogram.max())));
+        }
+        for (Counter counter : Counter.values()) {
+            report.append(counter == Counter.BYTES_READ ? "" : ", ").append(counter.label).append(' ').append(count(counter));
+        }
+        return report.append(System.lineSeparator()).toString();
+    }
+
+    public static void writeTo(Path file) throws IOException {
+        Files.writeString(file, report());
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 1_000_000) {
+            return String.format(Locale.ROOT, "%.1fus", nanos / 1e3);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.2fs", nanos / 1e9);
+    }
+
+    /**
+     * Log-linear histogram in the style of HdrHistogram: values below 32 have a bucket
+     * each, above that every power of two is split into 16 buckets, so a value is
+     * known to within 1/16 of itself across the whole long range in 960 counters.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray totals = new AtomicLongArray(2);
+
+        public void record(long value) {
+            value = Math.max(value, 0);
+            counts.incrementAndGet(index(value));
+            totals.incrementAndGet(0);
+            long max;
+            while (value > (max = totals.get(1)) && !totals.compareAndSet(1, max, value)) {
+                // Another thread raised the maximum, compare again
+            }
+        }
+
+        public long count() {
+            return totals.get(0);
+        }
+
+        public long max() {
+            return totals.get(1);
+        }
+
+        // The highest value in the bucket holding the percentile, like HdrHistogram reports it
+        public long percentile(double percentile) {
+            long total = count();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highest(i), max());
+                }
+            }
+            return max();
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - SUB_BITS) * SUB_BUCKETS + (int) (value >>> (exponent - SUB_BITS));
+        }
+
+        static long highest(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves a batch of files as one unit. A move within one file system is a single
+ * atomic rename. Across file systems the file is copied in parallel chunks into a
+ * temporary file next to the destination, synced to disk, renamed into place, and
+ * only then is the source deleted.
+ *
+ * If any move fails, the batch is rolled back: the failed move leaves its source
+ * untouched and removes its partial copy, the moves already done are moved back in
+ * reverse order, and destination files that were replaced are restored.
+ */
+public class MoveEngine {
+    // Size of the file ranges copied in parallel across file systems
+    private static final long CHUNK_SIZE = 64L << 20;
+    // Largest single transferFrom call, so progress and cancellation are noticed
+    private static final long TRANSFER_SIZE = 8L << 20;
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    private final int parallelism;
+    private final OutputSink out;
+    private final OutputSink err;
+    private final AtomicLong copied = new AtomicLong();
+    // The caller's running total of bytes processed
+    private final AtomicLong processed;
+    private long toCopy;
+    private long started;
+
+    private record Move(Path source, Path destination, Path backup) {
+    }
+
+    public MoveEngine(int parallelism, OutputSink out, OutputSink err) {
+        this(parallelism, out, err, new AtomicLong());
+    }
+
+    public MoveEngine(int parallelism, OutputSink out, OutputSink err, AtomicLong processed) {
+        this.parallelism = parallelism;
+        this.out = out;
+        this.err = err;
+        this.processed = processed;
+    }
+
+    public boolean move(List<Path> sources, Path target) {
+        boolean intoDirectory = Files.isDirectory(target);
+        List<Move> done = new ArrayList<>();
+        started = System.nanoTime();
+
+        for (Path source : sources) {
+            Path destination = intoDirectory ? target.resolve(source.getFileName().toString()) : target;
+            Path backup = null;
+            try {
+                // A killed background job stops between sources as well as between chunks
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("mv interrupted");
+                }
+                if (Files.exists(destination) && Files.isSameFile(source, destination)) {
+                    continue;
+                }
+                backup = setAside(destination);
+                moveOne(source, destination);
+                done.add(new Move(source, destination, backup));
+            } catch (IOException | CancellationException e) {
+                err.println("An error occurred while moving the file: " + describe(e));
+                // The rollback itself must not be cancelled, the interrupt is kept for the caller
+                boolean interrupted = Thread.interrupted();
+                restore(backup, destination);
+                rollback(done);
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        }
+
+        for (Move move : done) {
+            if (move.backup() != null) {
+                try {
+                    Files.deleteIfExists(move.backup());
+                } catch (IOException e) {
+                    err.println("mv: could not remove " + move.backup() + ": " + e.getMessage());
+                }
+            }
+        }
+        if (toCopy > 0) {
+            double seconds = Math.max(System.nanoTime() - started, 1) / 1e9;
+            out.printf("mv: copied %s in %.1fs (%s/s)%n", size(toCopy), seconds, size((long) (toCopy / seconds)));
+        }
+        return true;
+    }
+
+    private void moveOne(Path source, Path destination) throws IOException {
+        try {
+            rename(source, destination);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different file systems: the kernel cannot rename, copy then delete
+            if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+                moveTree(source, destination);
+            } else {
+                moveFile(source, destination);
+            }
+        }
+    }
+
+    private void moveFile(Path source, Path destination) throws IOException {
+        Path temp = temporarySibling(destination);
+        long size = Files.size(source);
+        toCopy += size;
+
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                if (size > 0) {
+                    // transferFrom does not write past the end of the file, so size it first
+                    out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                }
+                copyChunks(source, out, size);
+                out.force(true);
+            }
+            Files.setLastModifiedTime(temp, Files.getLastModifiedTime(source));
+            rename(temp, destination);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.delete(source);
+        Metrics.increment(Metrics.Counter.DELETES);
+    }
+
+    private void copyChunks(Path source, FileChannel out, long size) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> chunks = new ArrayList<>();
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                long start = position;
+                long end = Math.min(size, position + CHUNK_SIZE);
+                chunks.add(pool.submit(() -> copyRange(source, out, start, end)));
+            }
+            for (Future<?> chunk : chunks) {
+                waitWithProgress(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("mv interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Each chunk reads through its own channel, writes are positional on the shared one
+    private Void copyRange(Path source, FileChannel out, long start, long end) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            in.position(start);
+            long position = start;
+            while (position < end) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("mv interrupted");
+                }
+                long transferred = out.transferFrom(in, position, Math.min(TRANSFER_SIZE, end - position));
+                if (transferred == 0) {
+                    throw new IOException("Unexpected end of file: " + source);
+                }
+                position += transferred;
+                copied.addAndGet(transferred);
+                processed.addAndGet(transferred);
+                Metrics.add(Metrics.Counter.BYTES_READ, transferred);
+                Metrics.add(Metrics.Counter.BYTES_WRITTEN, transferred);
+            }
+        }
+        return null;
+    }
+
+    private void waitWithProgress(Future<?> chunk) throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                chunk.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                printProgress();
+            }
+        }
+    }
+
+    private void printProgress() {
+        long bytes = copied.get();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long rate = (long) (bytes / seconds);
+        String eta = rate > 0 ? (toCopy - bytes) / rate + "s" : "unknown";
+        // Progress is only useful when it is seen right away
+        err.println("mv: " + size(bytes) + " of " + size(toCopy) + " copied, " + size(rate) + "/s, ETA " + eta);
+        err.flush();
+    }
+
+    private void moveTree(Path source, Path destination) throws IOException {
+        Path temp = temporarySibling(destination);
+        FileTrees trees = new FileTrees(parallelism);
+        if (!trees.copy(source, temp)) {
+            new FileTrees(parallelism).delete(temp);
+            throw new IOException("Failed to copy " + trees.errors().keySet().iterator().next());
+        }
+        rename(temp, destination);
+        if (!new FileTrees(parallelism).delete(source)) {
+            throw new IOException("Copied but could not delete " + source);
+        }
+    }
+
+    // Keeps a file that is about to be replaced until the batch succeeds, directories are never replaced
+    private static Path setAside(Path destination) throws IOException {
+        if (!Files.exists(destination, LinkOption.NOFOLLOW_LINKS)
+                || Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+            return null;
+        }
+        Path backup = temporarySibling(destination);
+        rename(destination, backup);
+        return backup;
+    }
+
+    private void restore(Path backup, Path destination) {
+        if (backup == null) {
+            return;
+        }
+        try {
+            rename(backup, destination);
+        } catch (IOException e) {
+            err.println("mv: could not restore " + destination + ", the original is kept at " + backup);
+        }
+    }
+
+    private void rollback(List<Move> done) {
+        for (int i = done.size() - 1; i >= 0; i--) {
+            Move move = done.get(i);
+            try {
+                moveOne(move.destination(), move.source());
+                restore(move.backup(), move.destination());
+            } catch (IOException | CancellationException e) {
+                err.println("mv: could not move " + move.destination() + " back to " + move.source()
+                        + ": " + describe(e));
+            }
+        }
+        if (!done.isEmpty()) {
+            err.println("mv: rolled back " + done.size() + " completed move(s)");
+        }
+    }
+
+    private static void rename(Path from, Path to) throws IOException {
+        Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.increment(Metrics.Counter.MOVES);
+    }
+
+    private static Path temporarySibling(Path path) {
+        return path.resolveSibling("." + path.getFileName() + ".mv-" + ThreadLocalRandom.current().nextInt(1 << 30));
+    }
+
+    private static String describe(Exception e) {
+        return e instanceof NoSuchFileException ? "No such file: " + e.getMessage() : e.getMessage();
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " KB";
+        }
+        return (bytes / (1024 * 1024)) + " MB";
+    }
+}
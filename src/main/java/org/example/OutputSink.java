@@ -0,0 +1,215 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Formatter;
+import java.util.function.Supplier;
+
+/**
+ * Console output shared by all commands. Text is encoded straight into one reusable
+ * byte buffer, ASCII without going through an encoder, and nothing is written out
+ * until the buffer is full or flush is called: Main flushes after every command and
+ * before showing the prompt. Not thread-safe, a sink belongs to the thread running
+ * the command.
+ *
+ * The stream is looked up at every flush, so a caller that replaced System.out or
+ * System.err still gets the output. While it is the process' own stream, the bytes
+ * go to the file descriptor directly, and large writes skip the buffer.
+ */
+public final class OutputSink implements Flushable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+    private static final PrintStream STDOUT = System.out;
+    private static final PrintStream STDERR = System.err;
+
+    private final Supplier<? extends OutputStream> stream;
+    private final OutputStream original;
+    private final FileDescriptor descriptor;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private FileChannel descriptorChannel;
+    private CharsetEncoder encoder;
+    private StringBuilder formatted;
+    private Formatter formatter;
+
+    private final WritableByteChannel channel = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            OutputSink.this.write(src);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // The console stays open
+        }
+    };
+
+    private OutputSink(Supplier<? extends OutputStream> stream, OutputStream original, FileDescriptor descriptor) {
+        this.stream = stream;
+        this.original = original;
+        this.descriptor = descriptor;
+    }
+
+    public static OutputSink stdout() {
+        return new OutputSink(() -> System.out, STDOUT, FileDescriptor.out);
+    }
+
+    public static OutputSink stderr() {
+        return new OutputSink(() -> System.err, STDERR, FileDescriptor.err);
+    }
+
+    // A sink that writes to the stream, e.g. to capture a background job's output
+    public static OutputSink to(OutputStream stream) {
+        return new OutputSink(() -> stream, null, null);
+    }
+
+    public OutputSink print(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                encode(text, i, length);
+                return this;
+            }
+            if (count == buffer.length) {
+                drain();
+            }
+            buffer[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    public OutputSink print(Object value) {
+        return print(String.valueOf(value));
+    }
+
+    public OutputSink println(CharSequence text) {
+        return print(text).print(NEWLINE);
+    }
+
+    public OutputSink println(Object value) {
+        return println(String.valueOf(value));
+    }
+
+    public OutputSink println() {
+        return print(NEWLINE);
+    }
+
+    public OutputSink printf(String format, Object... args) {
+        if (formatter == null) {
+            formatted = new StringBuilder();
+            formatter = new Formatter(formatted);
+        }
+        formatted.setLength(0);
+        formatter.format(format, args);
+        return print(formatted);
+    }
+
+    // Raw bytes, passed on untouched
+    public void write(ByteBuffer src) {
+        if (src.remaining() > buffer.length - count) {
+            drain();
+            if (src.remaining() >= buffer.length && writeDirect(src)) {
+                return;
+            }
+        }
+        while (src.hasRemaining()) {
+            if (count == buffer.length) {
+                drain();
+            }
+            int length = Math.min(src.remaining(), buffer.length - count);
+            src.get(buffer, count, length);
+            count += length;
+        }
+    }
+
+    // A channel view of the sink, for code that copies bytes to a channel
+    public WritableByteChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            stream.get().flush();
+        } catch (IOException e) {
+            // Like PrintStream, a console that went away is not the command's error
+        }
+    }
+
+    // Non-ASCII text, continues from index from with the encoder
+    private void encode(CharSequence text, int from, int to) {
+        if (encoder == null) {
+            encoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        CharBuffer chars = CharBuffer.wrap(text, from, to);
+        encoder.reset();
+        boolean flushing = false;
+        while (true) {
+            ByteBuffer out = ByteBuffer.wrap(buffer, count, buffer.length - count);
+            CoderResult result = flushing ? encoder.flush(out) : encoder.encode(chars, out, true);
+            count = out.position();
+            if (result.isOverflow()) {
+                drain();
+            } else if (!flushing) {
+                flushing = true;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer pending = ByteBuffer.wrap(buffer, 0, count);
+        count = 0;
+        writeDirect(pending);
+    }
+
+    // Writes without buffering, false for a direct buffer when the stream was replaced
+    private boolean writeDirect(ByteBuffer src) {
+        OutputStream target = stream.get();
+        if (target != original && !src.hasArray()) {
+            return false;
+        }
+        try {
+            if (target != original) {
+                target.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+                src.position(src.limit());
+                return true;
+            }
+            // Whatever went through the stream itself comes first
+            target.flush();
+            if (descriptorChannel == null) {
+                // Never closed, closing it would close the process' stream
+                descriptorChannel = new FileOutputStream(descriptor).getChannel();
+            }
+            while (src.hasRemaining()) {
+                descriptorChannel.write(src);
+            }
+        } catch (IOException e) {
+            // Like PrintStream, a console that went away is not the command's error
+            src.position(src.limit());
+        }
+        return true;
+    }
+}
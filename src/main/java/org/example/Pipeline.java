@@ -0,0 +1,317 @@
+package org.example;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Runs commands joined with '|'. Every stage runs on its own virtual thread and
+ * passes lines to the next stage through a bounded queue, so a slow consumer
+ * holds back its producer instead of the whole output piling up in memory.
+ */
+public class Pipeline {
+    // Lines buffered between two stages before the producer blocks
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Marks the end of a stage's output, compared by identity
+    private static final String END = new String("<end>");
+
+    interface Stage {
+        void run(BlockingQueue<String> in, BlockingQueue<String> out) throws IOException, InterruptedException;
+    }
+
+    private final Main cli;
+    // Reported by the stage threads, printed by the calling thread once the stages are done
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+    public Pipeline(Main cli) {
+        this.cli = cli;
+    }
+
+    public void run(String input) {
+        run(Tokenizer.stages(Tokenizer.tokenize(input)));
+    }
+
+    public void run(List<String[]> commands) {
+        Stage[] stages = new Stage[commands.size()];
+        for (int i = 0; i < stages.length; i++) {
+            String[] command = commands.get(i);
+            if (command.length == 0) {
+                cli.err().println("Syntax error near '|'");
+                return;
+            }
+            stages[i] = stage(command);
+            if (stages[i] == null) {
+                return;
+            }
+        }
+
+        List<BlockingQueue<String>> queues = new ArrayList<>();
+        for (int i = 0; i <= stages.length; i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+        // The first stage has no upstream
+        queues.get(0).add(END);
+
+        Thread[] threads = new Thread[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            int index = i;
+            threads[i] = Thread.ofVirtual().name("pipeline-" + i).unstarted(
+                    () -> runStage(stages[index], queues.get(index), queues.get(index + 1), threads, index));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        BlockingQueue<String> output = queues.get(stages.length);
+        try {
+            String line;
+            while ((line = output.take()) != END) {
+                cli.out().println(line);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+        for (String error : errors) {
+            cli.err().println(error);
+        }
+    }
+
+    private void runStage(Stage stage, BlockingQueue<String> in, BlockingQueue<String> out,
+            Thread[] threads, int index) {
+        try {
+            stage.run(in, out);
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            // A later stage finished early (e.g. head), nobody needs our output anymore;
+            // a stage reading a file sees the interrupt as its channel closing
+            return;
+        } catch (IOException | UncheckedIOException e) {
+            errors.add("pipeline: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Still ends the output below, the stages after this one and the caller would wait for it
+            errors.add("pipeline: " + e);
+        } finally {
+            // Upstream stages would otherwise block forever on a full queue
+            for (int i = 0; i < index; i++) {
+                threads[i].interrupt();
+            }
+        }
+        try {
+            out.put(END);
+        } catch (InterruptedException ignored) {
+            // Downstream is already gone
+        }
+    }
+
+    private Stage stage(String[] command) {
+        switch (command[0]) {
+            case "cat":
+                return catStage(Arrays.copyOfRange(command, 1, command.length));
+            case "grep":
+                if (command.length < 2) {
+                    cli.err().println("Missing argument for command: grep");
+                    return null;
+                }
+                return grepStage(command[1], Arrays.copyOfRange(command, 2, command.length));
+            case "head":
+            case "tail":
+                return headOrTailStage(command);
+            case "ls":
+                // -l and -R print as they list, they do not run in a pipeline
+                if (command.length > 2 || (command.length == 2 && !command[1].matches("-a|-r"))) {
+                    cli.err().println("ls: " + command[command.length - 1] + ": not supported in a pipeline");
+                    return null;
+                }
+                return (in, out) -> {
+                    for (String name : command.length == 2 ? cli.ls(command[1]) : cli.ls()) {
+                        out.put(name);
+                    }
+                };
+            case "pwd":
+                return (in, out) -> out.put(cli.pwd());
+            case "help":
+                return (in, out) -> {
+                    for (String line : cli.helpText().split("\n")) {
+                        out.put(line);
+                    }
+                };
+            default:
+                cli.err().println("Unknown command: " + command[0]);
+                return null;
+        }
+    }
+
+    private Stage catStage(String[] fileNames) {
+        if (fileNames.length == 0) {
+            return Pipeline::copy;
+        }
+        return (in, out) -> readFiles(fileNames, out::put);
+    }
+
+    private Stage grepStage(String regex, String[] fileNames) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            cli.err().println("grep: Invalid pattern: " + regex);
+            return null;
+        }
+        return (in, out) -> {
+            LineSink matches = line -> {
+                if (pattern.matcher(line).find()) {
+                    out.put(line);
+                }
+            };
+            if (fileNames.length == 0) {
+                String line;
+                while ((line = in.take()) != END) {
+                    matches.accept(line);
+                }
+            } else {
+                readFiles(fileNames, matches);
+            }
+        };
+    }
+
+    // Usage: head|tail [-n N] [file]..., without files the lines of the previous stage
+    private Stage headOrTailStage(String[] command) {
+        boolean tail = command[0].equals("tail");
+        int count = 10;
+        List<String> fileNames = new ArrayList<>();
+        for (int i = 1; i < command.length; i++) {
+            if (command[i].equals("-n")) {
+                if (i + 1 == command.length) {
+                    cli.err().println("Missing argument for command: " + command[0]);
+                    return null;
+                }
+                try {
+                    count = Integer.parseInt(command[++i]);
+                } catch (NumberFormatException e) {
+                    cli.err().println(command[0] + ": invalid number of lines: " + command[i]);
+                    return null;
+                }
+            } else if (command[i].startsWith("-")) {
+                // tail -f never ends, so nothing after it would get its END
+                cli.err().println(command[0] + ": " + command[i] + ": not supported in a pipeline");
+                return null;
+            } else {
+                fileNames.add(command[i]);
+            }
+        }
+        int lines = count;
+        return (in, out) -> {
+            if (fileNames.isEmpty()) {
+                LineSource upstream = () -> {
+                    String line = in.take();
+                    return line != END ? line : null;
+                };
+                headOrTail(tail, lines, upstream, out);
+                return;
+            }
+            for (String fileName : fileNames) {
+                read(command[0], fileName, reader -> {
+                    if (fileNames.size() > 1) {
+                        out.put("==> " + fileName + " <==");
+                    }
+                    headOrTail(tail, lines, reader::readLine, out);
+                });
+            }
+        };
+    }
+
+    private static void headOrTail(boolean tail, int count, LineSource in, BlockingQueue<String> out)
+            throws IOException, InterruptedException {
+        if (tail) {
+            tail(count, in, out);
+            return;
+        }
+        String line;
+        for (int i = 0; i < count && (line = in.next()) != null; i++) {
+            out.put(line);
+        }
+    }
+
+    // Keeps only the last lines in a ring, so memory depends on the count and not the input
+    private static void tail(int count, LineSource in, BlockingQueue<String> out)
+            throws IOException, InterruptedException {
+        String[] ring = new String[Math.max(count, 0)];
+        long seen = 0;
+        String line;
+        while ((line = in.next()) != null) {
+            if (ring.length > 0) {
+                ring[(int) (seen % ring.length)] = line;
+            }
+            seen++;
+        }
+        long first = Math.max(0, seen - ring.length);
+        for (long i = first; i < seen; i++) {
+            out.put(ring[(int) (i % ring.length)]);
+        }
+    }
+
+    private void readFiles(String[] fileNames, LineSink sink) throws IOException, InterruptedException {
+        for (String fileName : fileNames) {
+            read("cat", fileName, reader -> {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    sink.accept(line);
+                }
+            });
+        }
+    }
+
+    // Hands the decoded lines of a file to body, or reports the error when it is no regular file
+    private void read(String command, String fileName, FileBody body) throws IOException, InterruptedException {
+        Path file = cli.resolve(fileName);
+        if (!Files.isRegularFile(file)) {
+            errors.add(command + ": " + fileName + (Files.isDirectory(file) ? ": Is a directory" : ": No such file"));
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                ReadableByteChannel decoded = Decompression.open(channel);
+                BufferedReader reader = new BufferedReader(
+                        Channels.newReader(decoded != null ? decoded : channel, Charset.defaultCharset()))) {
+            body.accept(reader);
+        } catch (Decompression.UnavailableException e) {
+            errors.add(command + ": " + e.getMessage());
+        }
+    }
+
+    private static void copy(BlockingQueue<String> in, BlockingQueue<String> out) throws InterruptedException {
+        String line;
+        while ((line = in.take()) != END) {
+            out.put(line);
+        }
+    }
+
+    private interface LineSink {
+        void accept(String line) throws InterruptedException;
+    }
+
+    private interface FileBody {
+        void accept(BufferedReader reader) throws IOException, InterruptedException;
+    }
+
+    // The next line, or null at the end
+    private interface LineSource {
+        String next() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+/**
+ * head and tail over raw bytes. tail reads the file backward from its end with
+ * positional reads, so finding the last lines costs the same for any file size,
+ * and tail -f waits on a WatchService for the file to grow.
+ */
+public final class Tail {
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private Tail() {
+    }
+
+    // Copies the first lines of the file, stopping right after the count-th newline
+    public static void head(Path file, int count, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        int lines = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (lines < count && in.read(buffer) != -1) {
+                buffer.flip();
+                int end = buffer.limit();
+                for (int i = 0; i < end; i++) {
+                    if (buffer.get(i) == '\n' && ++lines == count) {
+                        buffer.limit(i + 1);
+                        break;
+                    }
+                }
+                write(buffer, out);
+                buffer.clear();
+            }
+        }
+    }
+
+    public static long tail(Path file, int count, WritableByteChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            long start = startOfLastLines(in, size, count);
+            copy(in, start, size, out);
+            return size;
+        }
+    }
+
+    /**
+     * Prints the last lines, then keeps printing what is appended to the file until
+     * the thread is interrupted or the file is deleted. The console is flushed after
+     * every append, since it may be buffered.
+     */
+    public static void follow(Path file, int count, WritableByteChannel out, Flushable console) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path name = file.getFileName();
+        long position = tail(file, count, out);
+        console.flush();
+
+        try (WatchService watcher = dir.getFileSystem().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (!changed) {
+                    continue;
+                }
+                if (!Files.exists(file)) {
+                    return;
+                }
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    if (size < position) {
+                        // Truncated, start over from the beginning
+                        position = 0;
+                    }
+                    copy(in, position, size, out);
+                    position = size;
+                }
+                console.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Offset of the first byte of the last count lines, a final newline does not start a new line
+    static long startOfLastLines(FileChannel in, long size, int count) throws IOException {
+        if (count <= 0) {
+            return size;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long end = size;
+        int newlines = 0;
+        boolean last = true;
+        while (end > 0) {
+            long start = Math.max(0, end - BLOCK_SIZE);
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) != '\n') {
+                    last = false;
+                    continue;
+                }
+                if (last) {
+                    last = false;
+                    continue;
+                }
+                if (++newlines == count) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private static void copy(FileChannel in, long from, long to, WritableByteChannel out) throws IOException {
+        while (from < to) {
+            from += in.transferTo(from, to - from, out);
+        }
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Splits a command line into words and operators in a single pass. Supports single
+ * quotes (taken literally), double quotes (backslash escapes \" and \\), a
+ * backslash escaping the next character outside quotes, and the operators |, >,
+ * >> and &, which do not need surrounding spaces.
+ */
+public final class Tokenizer {
+    public enum Type {
+        WORD, PIPE, REDIRECT, APPEND, BACKGROUND
+    }
+
+    public record Token(Type type, String text, boolean quoted) {
+    }
+
+    private Tokenizer() {
+    }
+
+    public static List<Token> tokenize(String line) {
+        List<Token> tokens = new ArrayList<>();
+        int length = line.length();
+        int i = 0;
+        // Only used once a word has quotes or escapes, plain words are substrings
+        StringBuilder word = null;
+
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == ' ' || c == '\t') {
+                i++;
+            } else if (c == '|') {
+                tokens.add(new Token(Type.PIPE, "|", false));
+                i++;
+            } else if (c == '&') {
+                tokens.add(new Token(Type.BACKGROUND, "&", false));
+                i++;
+            } else if (c == '>') {
+                boolean append = i + 1 < length && line.charAt(i + 1) == '>';
+                i += append ? 2 : 1;
+                // >z and >>z compress, >zfile is still a redirect to zfile
+                boolean compress = i < length && line.charAt(i) == 'z'
+                        && (i + 1 == length || isBoundary(line.charAt(i + 1)));
+                if (compress) {
+                    i++;
+                }
+                String text = (append ? ">>" : ">") + (compress ? "z" : "");
+                tokens.add(new Token(append ? Type.APPEND : Type.REDIRECT, text, false));
+            } else {
+                int start = i;
+                while (i < length && isPlain(line.charAt(i))) {
+                    i++;
+                }
+                if (i == length || isBoundary(line.charAt(i))) {
+                    tokens.add(new Token(Type.WORD, line.substring(start, i), false));
+                    continue;
+                }
+
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.setLength(0);
+                word.append(line, start, i);
+                i = readQuoted(line, i, word);
+                tokens.add(new Token(Type.WORD, word.toString(), true));
+            }
+        }
+        return tokens;
+    }
+
+    // Continues a word that contains quotes or escapes, returns the index after it
+    private static int readQuoted(String line, int i, StringBuilder word) {
+        int length = line.length();
+        while (i < length && !isBoundary(line.charAt(i))) {
+            char c = line.charAt(i);
+            if (c == '\'') {
+                int end = line.indexOf('\'', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated quote");
+                }
+                word.append(line, i + 1, end);
+                i = end + 1;
+            } else if (c == '"') {
+                i++;
+                while (i < length && line.charAt(i) != '"') {
+                    char d = line.charAt(i);
+                    if (d == '\\' && i + 1 < length && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                        d = line.charAt(++i);
+                    }
+                    word.append(d);
+                    i++;
+                }
+                if (i == length) {
+                    throw new IllegalArgumentException("Unterminated quote");
+                }
+                i++;
+            } else if (c == '\\' && i + 1 < length) {
+                word.append(line.charAt(i + 1));
+                i += 2;
+            } else {
+                word.append(c);
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private static boolean isPlain(char c) {
+        return !isBoundary(c) && c != '\'' && c != '"' && c != '\\';
+    }
+
+    private static boolean isBoundary(char c) {
+        return c == ' ' || c == '\t' || c == '|' || c == '>' || c == '&';
+    }
+
+    // The command's argv, operators are kept as their text so "cat a > b" still sees ">"
+    public static String[] words(List<Token> tokens) {
+        String[] words = new String[tokens.size()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = tokens.get(i).text();
+        }
+        return words;
+    }
+
+    // Positions in words(tokens) that are operators, a quoted word that reads like one is not
+    public static BitSet operators(List<Token> tokens) {
+        BitSet operators = new BitSet(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).type() != Type.WORD) {
+                operators.set(i);
+            }
+        }
+        return operators;
+    }
+
+    // Splits at the pipe operators, one argv per stage
+    public static List<String[]> stages(List<Token> tokens) {
+        List<String[]> stages = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= tokens.size(); i++) {
+            if (i == tokens.size() || tokens.get(i).type() == Type.PIPE) {
+                stages.add(words(tokens.subList(start, i)));
+                start = i + 1;
+            }
+        }
+        return stages;
+    }
+
+    // Index of the first token of the type, -1 when there is none
+    public static int indexOf(List<Token> tokens, Type type) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).type() == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static boolean hasPipe(List<Token> tokens) {
+        for (Token token : tokens) {
+            if (token.type() == Type.PIPE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,281 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent index of the byte trigrams contained in every file of a tree, stored in
+ * a .cli-index file at the root of the tree and memory-mapped when used. grep asks
+ * it which files can contain a literal and skips the others.
+ *
+ * For every file the index keeps its size, modification time and the sorted list of
+ * its trigrams. A file whose size or time changed since the index was built is always
+ * searched, and rebuilding the index only reads the files that changed.
+ *
+ * File layout: magic, version, file count, then per file the relative path (length
+ * and UTF-8 bytes), size, modification time in millis, trigram count and trigrams.
+ */
+public class TrigramIndex {
+    public static final String FILE_NAME = ".cli-index";
+
+    private static final int MAGIC = 0x434c4958;
+    private static final int VERSION = 1;
+    // Files with more distinct trigrams than this are stored as "may contain anything"
+    private static final int MAX_TRIGRAMS = 1 << 20;
+    private static final int ALL = -1;
+
+    private final Path root;
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    private record Entry(long size, long modified, int offset, int count) {
+    }
+
+    private TrigramIndex(Path root, ByteBuffer buffer, Map<String, Entry> entries) {
+        this.root = root;
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Looks for an index in the directory and its parents, null when there is none
+    public static TrigramIndex find(Path dir) throws IOException {
+        for (Path current = dir.toAbsolutePath().normalize(); current != null; current = current.getParent()) {
+            if (Files.isRegularFile(current.resolve(FILE_NAME))) {
+                return load(current);
+            }
+        }
+        return null;
+    }
+
+    // An in-memory file system cannot map, its index is read onto the heap
+    private static ByteBuffer map(FileChannel channel) throws IOException {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (UnsupportedOperationException e) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.flip();
+        }
+    }
+
+    public static TrigramIndex load(Path root) throws IOException {
+        Path file = root.resolve(FILE_NAME);
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = map(channel);
+        }
+        if (buffer.remaining() < 12 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a valid index: " + file);
+        }
+
+        int count = buffer.getInt(8);
+        Map<String, Entry> entries = new HashMap<>(count * 2);
+        int position = 12;
+        for (int i = 0; i < count; i++) {
+            int pathLength = buffer.getInt(position);
+            byte[] path = new byte[pathLength];
+            buffer.get(position + 4, path);
+            position += 4 + pathLength;
+            long size = buffer.getLong(position);
+            long modified = buffer.getLong(position + 8);
+            int trigrams = buffer.getInt(position + 16);
+            position += 20;
+            entries.put(new String(path, StandardCharsets.UTF_8), new Entry(size, modified, position, trigrams));
+            position += Math.max(trigrams, 0) * 4;
+        }
+        return new TrigramIndex(root, buffer, entries);
+    }
+
+    // False only when the index proves the file cannot contain every one of the trigrams
+    public boolean mayContain(Path file, int[] trigrams) throws IOException {
+        Entry entry = entries.get(key(file));
+        if (entry == null || entry.count() == ALL) {
+            return true;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attrs.size() != entry.size() || attrs.lastModifiedTime().toMillis() != entry.modified()) {
+            return true;
+        }
+        IntBuffer stored = buffer.slice(entry.offset(), entry.count() * 4).asIntBuffer();
+        for (int trigram : trigrams) {
+            if (binarySearch(stored, trigram) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a new index for the tree. Files whose size and modification time match
+     * the previous index keep their trigrams, only new or changed files are read.
+     * Returns the number of files that had to be read.
+     */
+    public static int build(Path root, TrigramIndex previous) throws IOException {
+        Path target = root.resolve(FILE_NAME);
+        Path temp = root.resolve(FILE_NAME + ".tmp");
+        int[] counts = new int[2];
+        BitSet seen = new BitSet(1 << 24);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return !dir.equals(root) && dir.getFileName().toString().startsWith(".")
+                            ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile() || file.getFileName().toString().startsWith(FILE_NAME)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String key = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    byte[] path = key.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(path.length);
+                    out.write(path);
+                    out.writeLong(attrs.size());
+                    out.writeLong(modified);
+
+                    Entry old = previous == null ? null : previous.entries.get(key);
+                    if (old != null && old.size() == attrs.size() && old.modified() == modified) {
+                        previous.copyTrigrams(old, out);
+                    } else {
+                        writeTrigrams(file, seen, out);
+                        counts[1]++;
+                    }
+                    counts[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, counts[0]), 8);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return counts[1];
+    }
+
+    // The trigrams of a literal, or null when it is too short to filter anything
+    public static int[] trigrams(String literal) {
+        byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 3) {
+            return null;
+        }
+        int[] trigrams = new int[bytes.length - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = trigram(bytes[i], bytes[i + 1], bytes[i + 2]);
+        }
+        return trigrams;
+    }
+
+    private static int trigram(int a, int b, int c) {
+        return (a & 0xff) << 16 | (b & 0xff) << 8 | (c & 0xff);
+    }
+
+    private static void writeTrigrams(Path file, BitSet seen, DataOutputStream out) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        int[] found = new int[256];
+        int distinct = 0;
+        int a = -1;
+        int b = -1;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(chunk) != -1 && distinct <= MAX_TRIGRAMS) {
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    int c = chunk.get() & 0xff;
+                    if (a >= 0) {
+                        int trigram = trigram(a, b, c);
+                        if (!seen.get(trigram)) {
+                            seen.set(trigram);
+                            if (distinct == found.length) {
+                                found = Arrays.copyOf(found, distinct * 2);
+                            }
+                            found[distinct++] = trigram;
+                        }
+                    }
+                    a = b;
+                    b = c;
+                }
+                chunk.clear();
+            }
+        } catch (IOException e) {
+            // Unreadable now, grep will report it when it gets there
+            distinct = MAX_TRIGRAMS + 1;
+        }
+
+        // Clear only the bits this file set, the set is shared by all files
+        for (int i = 0; i < Math.min(distinct, found.length); i++) {
+            seen.clear(found[i]);
+        }
+        if (distinct > MAX_TRIGRAMS) {
+            out.writeInt(ALL);
+            return;
+        }
+        Arrays.sort(found, 0, distinct);
+        out.writeInt(distinct);
+        for (int i = 0; i < distinct; i++) {
+            out.writeInt(found[i]);
+        }
+    }
+
+    private void copyTrigrams(Entry entry, DataOutputStream out) throws IOException {
+        out.writeInt(entry.count());
+        for (int i = 0; i < Math.max(entry.count(), 0); i++) {
+            out.writeInt(buffer.getInt(entry.offset() + i * 4));
+        }
+    }
+
+    private String key(Path file) {
+        return root.relativize(file.toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static int binarySearch(IntBuffer sorted, int key) {
+        int low = 0;
+        int high = sorted.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = sorted.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
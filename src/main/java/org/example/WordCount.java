@@ -0,0 +1,124 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Counts lines, words and bytes of a file without decoding it. Large files are split
+ * into byte ranges that end on a newline, and the ranges are counted in parallel,
+ * each through its own direct buffer. Since a newline is whitespace no word spans two
+ * ranges. Words are runs of bytes other than ASCII whitespace, as in wc's C locale.
+ */
+public final class WordCount {
+    // Files smaller than this are counted on the calling thread
+    private static final long MIN_RANGE = 8L << 20;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public record Counts(long lines, long words, long bytes) {
+        Counts plus(Counts other) {
+            return new Counts(lines + other.lines, words + other.words, bytes + other.bytes);
+        }
+    }
+
+    private WordCount() {
+    }
+
+    public static Counts count(Path file, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MIN_RANGE || parallelism <= 1) {
+                return countRange(channel, 0, size);
+            }
+
+            List<long[]> ranges = ranges(channel, size, Math.max(MIN_RANGE, size / (parallelism * 4L)));
+            try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+                List<ForkJoinTask<Counts>> tasks = new ArrayList<>();
+                for (long[] range : ranges) {
+                    tasks.add(pool.submit(() -> countRange(channel, range[0], range[1])));
+                }
+                Counts total = new Counts(0, 0, 0);
+                for (ForkJoinTask<Counts> task : tasks) {
+                    total = total.plus(task.get());
+                }
+                return total;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("wc interrupted");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+    }
+
+    // Ranges of about the given length, each one moved forward to end just after a newline
+    private static List<long[]> ranges(FileChannel channel, long size, long length) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + length);
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += read;
+            }
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static Counts countRange(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(end - start, 1)));
+        long lines = 0;
+        long words = 0;
+        boolean inWord = false;
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    lines++;
+                }
+                boolean space = b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == 0x0b || b == '\f';
+                if (!space && !inWord) {
+                    words++;
+                }
+                inWord = !space;
+            }
+        }
+        return new Counts(lines, words, position - start);
+    }
+}
@@ -0,0 +1,105 @@
+package org.example;
+
+import com.github.luben.zstd.ZstdDirectBufferDecompressingStreamNoFinalizer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The uncompressed contents of a zstd file, read as a channel like GzipReader. The
+ * decoding is zstd-jni's: the compressed bytes are read into a pooled direct buffer,
+ * and a caller with a direct buffer, as cat has, gets the output straight in it.
+ * Files of several frames, e.g. appended .zst files, are read to the end.
+ */
+final class ZstdReader implements ReadableByteChannel {
+    private final FileChannel in;
+    private final ZstdDirectBufferDecompressingStreamNoFinalizer stream;
+    private ByteBuffer input;
+    // For callers reading into heap buffers, the decoder only writes to direct ones
+    private ByteBuffer output;
+    private long position;
+    private boolean eof;
+
+    ZstdReader(FileChannel in) {
+        this.in = in;
+        input = BufferPool.take().limit(0);
+        // The stream keeps reading from input, which read refills in place once it is empty
+        try {
+            stream = new ZstdDirectBufferDecompressingStreamNoFinalizer(input);
+        } catch (LinkageError e) {
+            BufferPool.release(input);
+            throw e;
+        }
+    }
+
+    // True when the file starts with the zstd frame magic, 28 B5 2F FD
+    static boolean isZstd(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        return channel.read(magic, 0) == 4 && magic.getInt(0) == 0x28B52FFD;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        while (true) {
+            if (!input.hasRemaining() && !eof) {
+                input.clear();
+                int read = in.read(input, position);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    position += read;
+                }
+                input.flip();
+            }
+            if (!stream.hasRemaining()) {
+                return -1;
+            }
+            int produced = decompress(dst);
+            if (produced > 0) {
+                return produced;
+            }
+            if (eof && !input.hasRemaining()) {
+                // The file ended inside a frame
+                throw new EOFException("Unexpected end of compressed data");
+            }
+        }
+    }
+
+    private int decompress(ByteBuffer dst) throws IOException {
+        if (dst.isDirect()) {
+            return stream.read(dst);
+        }
+        if (output == null) {
+            output = BufferPool.take();
+        }
+        output.clear().limit(Math.min(dst.remaining(), output.capacity()));
+        int produced = stream.read(output);
+        dst.put(output.flip());
+        return produced;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return input != null;
+    }
+
+    // Returns the buffers to the pool, the file channel is left to its owner
+    @Override
+    public void close() {
+        if (input != null) {
+            stream.close();
+            BufferPool.release(input);
+            input = null;
+            if (output != null) {
+                BufferPool.release(output);
+                output = null;
+            }
+        }
+    }
+}
@@ -1,16 +1,34 @@
 package org.example;
 
+import com.github.luben.zstd.Zstd;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 class MainTest {
     private static final Path TEST_DIR = Paths.get("testDir");
@@ -25,9 +43,21 @@ class MainTest {
         assertEquals(Paths.get(System.getProperty("user.dir"), "src").toString(), cli.pwd());
     }
 
+    // The project's top level, in memory so the listing does not depend on what else is on disk
+    private static Main projectInMemory() throws IOException {
+        FileSystem fileSystem = FileSystemBackends.memory();
+        Path work = fileSystem.getPath("/work");
+        for (String dir : new String[] { ".git", ".idea", "src", "target" }) {
+            Files.createDirectory(work.resolve(dir));
+        }
+        Files.createFile(work.resolve(".gitignore"));
+        Files.createFile(work.resolve("pom.xml"));
+        return new Main(fileSystem);
+    }
+
     @Test
-    void testLs() {
-        var cli = new Main();
+    void testLs() throws IOException {
+        var cli = projectInMemory();
         String[] files = cli.ls();
         assertTrue(files.length > 0, "The ls command should return the list of files in the directory.");
         assertEquals(Arrays.toString(new String[] { "pom.xml", "src", "target" }), Arrays.toString(files),
@@ -35,8 +65,8 @@ class MainTest {
     }
 
     @Test
-    void testLsA() {
-        var cli = new Main();
+    void testLsA() throws IOException {
+        var cli = projectInMemory();
         String[] files = cli.ls("-a");
         assertTrue(files.length > 0, "The ls command should return the list of files in the directory.");
         assertEquals(Arrays.toString(new String[] { ".git", ".gitignore", ".idea", "pom.xml", "src", "target" }),
@@ -44,8 +74,8 @@ class MainTest {
     }
 
     @Test
-    void testLsR() {
-        var cli = new Main();
+    void testLsR() throws IOException {
+        var cli = projectInMemory();
         String[] files = cli.ls("-r");
         assertTrue(files.length > 0, "The ls command should return the list of files in the directory.");
         assertEquals(Arrays.toString(new String[] { "target", "src", "pom.xml" }),
@@ -66,6 +96,38 @@ class MainTest {
         assertTrue(Files.exists(dirPath), "Directory should exist after mkdir.");
     }
 
+    @Test
+    void testMkdirBracesAndTouchTimes() throws IOException {
+        var cli = new Main();
+        cli.setParallelism(4);
+        Files.createDirectories(TEST_DIR);
+        cli.cd(TEST_DIR.toString());
+
+        assertTrue(cli.execute("mkdir tree/{1..20}/{a,b,c}"));
+        for (int i = 1; i <= 20; i++) {
+            assertTrue(Files.isDirectory(TEST_DIR.resolve("tree/" + i + "/c")));
+        }
+        cli.flush();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errorStream));
+        assertFalse(cli.mkdir("tree/1"));
+        cli.flush();
+        assertEquals("", outputStream.toString());
+        assertTrue(errorStream.toString().contains("Directory already exists"));
+        assertTrue(cli.mkdir("-p", "tree/1", "tree/21"));
+        cli.flush();
+        assertEquals("mkdir: created 1 directories\n", outputStream.toString());
+
+        FileTime old = FileTime.fromMillis(1_000_000_000_000L);
+        Files.createFile(TEST_FILE1);
+        Files.setLastModifiedTime(TEST_FILE1, old);
+        assertTrue(cli.touch("testFile1.txt", "tree/22/new.txt"));
+        assertTrue(Files.getLastModifiedTime(TEST_FILE1).compareTo(old) > 0);
+        assertTrue(Files.exists(TEST_DIR.resolve("tree/22/new.txt")));
+    }
+
     @Test
     void testRmdir() throws IOException {
         var cli = new Main();
@@ -104,6 +166,24 @@ class MainTest {
 
     }
 
+    @Test
+    void testMvRollsBackFailedBatch() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR.resolve("target/busy"));
+        Files.writeString(TEST_DIR.resolve("target/busy/keep.txt"), "keep");
+        Files.writeString(TEST_DIR.resolve("target/first.txt"), "old");
+        Files.writeString(TEST_DIR.resolve("first.txt"), "new");
+        Files.createDirectories(TEST_DIR.resolve("busy"));
+        cli.cd(TEST_DIR.toString());
+
+        // The directory cannot replace the non-empty target/busy, so the first move is undone
+        assertFalse(cli.mv(new String[] { "mv", "first.txt", "busy", "target" }));
+        assertEquals("new", Files.readString(TEST_DIR.resolve("first.txt")));
+        assertEquals("old", Files.readString(TEST_DIR.resolve("target/first.txt")));
+        assertTrue(Files.isDirectory(TEST_DIR.resolve("busy")));
+        assertEquals("keep", Files.readString(TEST_DIR.resolve("target/busy/keep.txt")));
+    }
+
     @Test
     void testMvNonExistentFile() {
         var cli = new Main();
@@ -174,9 +254,10 @@ class MainTest {
         System.setOut(new PrintStream(outputStream));
 
         cli.cat(TEST_FILE1.getFileName().toString(), TEST_FILE2.getFileName().toString());
+        cli.flush();
 
-        // Verify output contains contents of both files
-        String expectedOutput = "Content of testFile1\r\nContent of testFile2\r\n";
+        // Verify output contains the exact bytes of both files
+        String expectedOutput = "Content of testFile1Content of testFile2";
         assertEquals(expectedOutput, outputStream.toString());
     }
 
@@ -195,9 +276,10 @@ class MainTest {
         cli.cd(TEST_DIR.toString());
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(outputStream));
 
         cli.cat(NON_EXISTENT_FILE.getFileName().toString());
+        cli.flush();
 
         // Verify output shows "No such file" for the non-existent file
         String expectedOutput = "cat: nonExistent.txt: No such file\r\n";
@@ -221,15 +303,899 @@ class MainTest {
         cli.cd(TEST_DIR.toString());
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(outputStream));
 
         cli.cat(subDir.getFileName().toString());
+        cli.flush();
 
         // Verify output shows "Is a directory" for the directory
         String expectedOutput = "cat: subDir: Is a directory\r\n";
         assertEquals(expectedOutput, outputStream.toString());
     }
 
+    @Test
+    public void testCatRedirectIsByteExact() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.write(TEST_FILE1, "line1\r\nline2".getBytes());
+        Files.write(TEST_FILE2, "no newline".getBytes());
+        cli.cd(TEST_DIR.toString());
+
+        cli.catOrg(new String[] { "cat", "testFile1.txt", "testFile2.txt", ">", "out.txt" });
+        assertEquals("line1\r\nline2no newline", Files.readString(TEST_DIR.resolve("out.txt")));
+
+        cli.catOrg(new String[] { "cat", "testFile2.txt", ">>", "out.txt" });
+        assertEquals("line1\r\nline2no newlineno newline", Files.readString(TEST_DIR.resolve("out.txt")));
+    }
+
+    @Test
+    public void testQuotedRedirectIsAFileName() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "one\n");
+        Files.writeString(TEST_DIR.resolve(">"), "two\n");
+        Files.writeString(TEST_FILE2, "three\n");
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(outputStream));
+        try {
+            cli.execute("cat testFile1.txt '>' testFile2.txt");
+            cli.flush();
+        } finally {
+            System.setOut(originalOut);
+        }
+        assertEquals("one\ntwo\nthree\n", outputStream.toString());
+        assertEquals("three\n", Files.readString(TEST_FILE2));
+    }
+
+    @Test
+    public void testPipeline() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            log.append(i % 1000 == 0 ? "ERROR " : "INFO ").append(i).append('\n');
+        }
+        Files.writeString(TEST_FILE1, log);
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+
+        new Pipeline(cli).run("cat testFile1.txt | grep ERROR | head -n 3");
+        cli.flush();
+
+        assertEquals(Arrays.asList("ERROR 0", "ERROR 1000", "ERROR 2000"), outputStream.toString().lines().toList());
+    }
+
+    @Test
+    public void testPipelineStageArguments() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "a1\na2\na3\na4\n");
+        Files.writeString(TEST_FILE2, "b1\nb2\n");
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errorStream));
+
+        new Pipeline(cli).run("head -n 2 testFile1.txt | grep a");
+        new Pipeline(cli).run("help | tail testFile2.txt -n 1 testFile1.txt");
+        cli.flush();
+        assertEquals(Arrays.asList("a1", "a2", "==> testFile2.txt <==", "b2", "==> testFile1.txt <==", "a4"),
+                outputStream.toString().lines().toList());
+        assertEquals("", errorStream.toString());
+
+        outputStream.reset();
+        new Pipeline(cli).run("ls -l | head");
+        new Pipeline(cli).run("cat testFile1.txt | tail -f");
+        new Pipeline(cli).run("cat testFile1.txt | head -n");
+        cli.flush();
+        assertEquals("", outputStream.toString());
+        assertEquals(Arrays.asList("ls: -l: not supported in a pipeline", "tail: -f: not supported in a pipeline",
+                "Missing argument for command: head"), errorStream.toString().lines().toList());
+    }
+
+    @Test
+    public void testPipelineStoppedEarlyIsSilent() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 1_000_000; i++) {
+            log.append(i).append('\n');
+        }
+        Files.writeString(TEST_FILE1, log);
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errorStream));
+
+        // head interrupts cat while it reads, which closes cat's channel; that is no error
+        for (int i = 0; i < 20; i++) {
+            new Pipeline(cli).run("cat testFile1.txt | grep 99999 | head -n 1");
+        }
+        cli.flush();
+
+        assertEquals(Collections.nCopies(20, "99999"), outputStream.toString().lines().toList());
+        assertEquals("", errorStream.toString());
+    }
+
+    @Test
+    void testCpAndRmRecursive() throws IOException {
+        var cli = new Main();
+        cli.setParallelism(4);
+        for (int i = 0; i < 20; i++) {
+            Path dir = Files.createDirectories(TEST_DIR.resolve("tree/d" + i + "/sub"));
+            Files.writeString(dir.resolve("file.txt"), "content " + i);
+            Files.writeString(dir.getParent().resolve("top.txt"), "top " + i);
+        }
+
+        assertTrue(cli.cp(new String[] { "cp", "-r", "testDir/tree", "testDir/copy" }));
+        assertEquals("content 7", Files.readString(TEST_DIR.resolve("copy/d7/sub/file.txt")));
+        assertEquals("top 19", Files.readString(TEST_DIR.resolve("copy/d19/top.txt")));
+
+        assertTrue(cli.rm(new String[] { "rm", "-r", "testDir/tree" }));
+        assertFalse(Files.exists(TEST_DIR.resolve("tree")));
+        assertTrue(Files.exists(TEST_DIR.resolve("copy/d0/sub/file.txt")));
+    }
+
+    @Test
+    void testCpDirectoryWithoutRecursive() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR.resolve("tree"));
+
+        assertFalse(cli.cp(new String[] { "cp", "testDir/tree", "testDir/copy" }));
+        assertFalse(Files.exists(TEST_DIR.resolve("copy")));
+    }
+
+    @Test
+    void testLsCacheSeesNewFiles() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.createFile(TEST_FILE1);
+        cli.cd(TEST_DIR.toString());
+
+        assertEquals(Arrays.toString(new String[] { "testFile1.txt" }), Arrays.toString(cli.ls()));
+        long hits = Long.parseLong(cli.stats().replaceAll("ls cache: (\\d+) hits.*", "$1"));
+        assertEquals(Arrays.toString(new String[] { "testFile1.txt" }), Arrays.toString(cli.ls()));
+        assertEquals(hits + 1, Long.parseLong(cli.stats().replaceAll("ls cache: (\\d+) hits.*", "$1")));
+
+        Files.createFile(TEST_FILE2);
+        assertEquals(Arrays.toString(new String[] { "testFile1.txt", "testFile2.txt" }),
+                Arrays.toString(cli.ls()));
+    }
+
+    @Test
+    void testLsLongAndRecursive() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR.resolve("sub"));
+        Files.writeString(TEST_FILE1, "12345");
+        Files.createFile(TEST_DIR.resolve("sub").resolve("nested.txt"));
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.lsLong();
+        cli.flush();
+        String longOutput = outputStream.toString();
+        assertTrue(longOutput.lines().anyMatch(line -> line.startsWith("-") && line.matches(".* 5 .* testFile1.txt")),
+                longOutput);
+        assertTrue(longOutput.lines().anyMatch(line -> line.startsWith("d") && line.endsWith(" sub")), longOutput);
+
+        outputStream.reset();
+        cli.lsRecursive(false);
+        cli.flush();
+        assertEquals(Arrays.asList("sub", Paths.get("sub", "nested.txt").toString(), "testFile1.txt"),
+                outputStream.toString().lines().sorted().toList());
+    }
+
+    @Test
+    void testBatchMode() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "hello\n");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.runBatch(new BufferedReader(new StringReader("cd testDir\ncat testFile1.txt\npwd\nexit\nls\n")));
+
+        assertEquals(Arrays.asList("hello", cli.pwd()), outputStream.toString().lines().toList());
+    }
+
+    @Test
+    void testFind() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR.resolve("sub"));
+        Files.createFile(TEST_DIR.resolve("sub/a.log"));
+        Files.createFile(TEST_DIR.resolve("b.txt"));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        assertTrue(cli.find(new String[] { "find", "testDir", "-name", "*.log" }));
+        cli.flush();
+
+        assertEquals(Arrays.asList(Paths.get("testDir", "sub", "a.log").toString()),
+                outputStream.toString().lines().toList());
+
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errorStream));
+        assertTrue(cli.execute("find . -name '['"));
+        cli.flush();
+        assertEquals("find: invalid pattern: [\n", errorStream.toString());
+    }
+
+    @Test
+    void testGrepUsesIndex() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "hello world\nbye\n");
+        Files.writeString(TEST_FILE2, "other text\n");
+        cli.cd(TEST_DIR.toString());
+        assertTrue(cli.index(new String[] { "index", "build", "." }));
+        cli.flush();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.grep(new String[] { "grep", "hello", "testFile1.txt", "testFile2.txt" });
+        cli.flush();
+        assertEquals(Arrays.asList("testFile1.txt:hello world"), outputStream.toString().lines().toList());
+
+        // Same size and time as indexed, so the index still says it cannot match
+        FileTime indexed = Files.getLastModifiedTime(TEST_FILE2);
+        Files.writeString(TEST_FILE2, "hello text\n");
+        Files.setLastModifiedTime(TEST_FILE2, indexed);
+        outputStream.reset();
+        cli.grep(new String[] { "grep", "hello", "testFile2.txt" });
+        cli.flush();
+        assertEquals("", outputStream.toString());
+
+        // A changed file is searched again
+        Files.writeString(TEST_FILE2, "hello again\n");
+        outputStream.reset();
+        cli.grep(new String[] { "grep", "hello", "testFile2.txt" });
+        cli.flush();
+        assertEquals(Arrays.asList("hello again"), outputStream.toString().lines().toList());
+    }
+
+    @Test
+    void testHeadAndTail() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "1\n2\n3\n4\n5\n");
+        Files.writeString(TEST_FILE2, "a\nb\nc");
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        assertTrue(cli.head(new String[] { "head", "-n", "2", "testFile1.txt" }));
+        cli.flush();
+        assertEquals("1\n2\n", outputStream.toString());
+
+        outputStream.reset();
+        assertTrue(cli.tail(new String[] { "tail", "-n", "2", "testFile1.txt" }));
+        cli.flush();
+        assertEquals("4\n5\n", outputStream.toString());
+
+        outputStream.reset();
+        assertTrue(cli.tail(new String[] { "tail", "-n", "2", "testFile2.txt" }));
+        cli.flush();
+        assertEquals("b\nc", outputStream.toString());
+
+        outputStream.reset();
+        assertTrue(cli.tail(new String[] { "tail", "-n", "10", "testFile2.txt" }));
+        cli.flush();
+        assertEquals("a\nb\nc", outputStream.toString());
+    }
+
+    @Test
+    void testWc() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "one two\n  three\n\nfour");
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        assertTrue(cli.wc(new String[] { "wc", "testFile1.txt" }));
+        cli.flush();
+        assertEquals("3 4 21 testFile1.txt", outputStream.toString().trim().replaceAll("\\s+", " "));
+    }
+
+    @Test
+    void testSortSpillsToDisk() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            lines.add(Integer.toString(random.nextInt(1_000_000)));
+        }
+        Files.write(TEST_FILE1, lines);
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        // A 4 KB budget forces dozens of runs
+        assertTrue(cli.sort(new String[] { "sort", "-S", "4K", "testFile1.txt" }));
+        cli.flush();
+
+        Collections.sort(lines);
+        assertEquals(lines, outputStream.toString().lines().toList());
+    }
+
+    @Test
+    void testHistory() throws Exception {
+        Files.createDirectories(TEST_DIR);
+        Path file = TEST_DIR.resolve("history");
+        try (History history = new History(file)) {
+            assertEquals(0, history.size());
+            history.add("ls -l");
+            history.add("cat a.txt");
+            history.add("cat b.txt");
+            history.add("ls -l");
+            assertEquals("cat a.txt", history.get(2));
+            assertEquals(Arrays.asList("cat b.txt", "ls -l"),
+                    history.tail(2).stream().map(History.Entry::command).toList());
+            assertEquals(3, history.lastWithPrefix("cat").number());
+            assertEquals(Arrays.asList("ls -l", "cat b.txt", "cat a.txt"),
+                    history.search("", 10).stream().map(History.Entry::command).toList());
+        }
+
+        // Separate instances, as separate processes would use
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            int writer = i;
+            writers[i] = new Thread(() -> {
+                try (History history = new History(file)) {
+                    for (int j = 0; j < 100; j++) {
+                        history.add("echo " + writer + " " + j);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        try (History history = new History(file)) {
+            assertEquals(404, history.size());
+            assertEquals(404, history.tail(1000).size());
+            assertEquals(0, history.tail(-5).size());
+            assertEquals("echo 2 99", history.lastWithPrefix("echo 2 ").command());
+        }
+
+        // Half a record, as a writer that crashed mid-write leaves: cut off by the next add
+        Files.write(file, new byte[] { 9, 'h', 'a', 'l', 'f' }, StandardOpenOption.APPEND);
+        try (History history = new History(file)) {
+            history.add("after crash");
+            assertEquals(405, history.size());
+            assertEquals("after crash", history.get(405));
+            assertEquals(405L * History.RECORD_SIZE, Files.size(file));
+
+            // Too long to save, but it takes its number, so !! does not run the command before it
+            assertFalse(history.add("rm -r " + "x".repeat(130)));
+            assertEquals(406, history.size());
+            assertNull(history.get(406));
+            assertEquals("after crash", history.get(405));
+        }
+
+        // Repeats of indexed commands, waiting to be merged, do not crowd out other matches
+        try (History history = new History(TEST_DIR.resolve("history2"))) {
+            for (int i = 0; i < 5000; i++) {
+                history.add("filler " + i);
+            }
+            for (String command : new String[] { "pF", "pE", "pB", "pC" }) {
+                history.add(command);
+            }
+            assertEquals(Arrays.asList("pC", "pB", "pE"),
+                    history.search("p", 3).stream().map(History.Entry::command).toList());
+            history.add("pB");
+            history.add("pC");
+            assertEquals(Arrays.asList("pC", "pB", "pE"),
+                    history.search("p", 3).stream().map(History.Entry::command).toList());
+            assertEquals(5006, history.lastWithPrefix("p").number());
+        }
+
+        System.setProperty("cli.history", file.toString());
+        try {
+            var cli = new Main();
+            assertEquals("cat a.txt", cli.expandHistory("!2"));
+            assertEquals("cat b.txt", cli.expandHistory("!cat"));
+            assertNull(cli.expandHistory("!nothing"));
+            assertNull(cli.expandHistory("!!"));
+            assertNull(cli.expandHistory("!-1"));
+            cli.flush();
+
+            ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(errorStream));
+            assertFalse(cli.historyCommand(new String[] { "history", "-5" }));
+            cli.flush();
+            assertEquals("history: -5: numeric argument required\n", errorStream.toString());
+        } finally {
+            System.clearProperty("cli.history");
+        }
+    }
+
+    @Test
+    void testBackgroundJobs() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR.resolve("sub"));
+        Files.writeString(TEST_FILE1, "background\n");
+        cli.cd(TEST_DIR.toString());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+
+        // The job's cd stays in the job, its output waits until the job is reported
+        cli.execute("cd sub &");
+        cli.execute("cat testFile1.txt &");
+        cli.execute("wait");
+        cli.flush();
+        assertTrue(cli.pwd().endsWith("testDir"));
+        List<String> lines = outputStream.toString().lines().toList();
+        assertEquals("[1] cd sub", lines.get(0));
+        assertEquals("[2] cat testFile1.txt", lines.get(1));
+        assertTrue(lines.get(2).startsWith("[1] Done"));
+        assertEquals("background", lines.get(3));
+        assertTrue(lines.get(4).startsWith("[2] Done"));
+
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errorStream));
+        cli.execute("cat & testFile1.txt");
+        cli.execute("kill 9");
+        cli.flush();
+        assertEquals(Arrays.asList("Syntax error: unexpected '&'", "kill: 9: no such job"),
+                errorStream.toString().lines().toList());
+
+        // What kill does to a job's thread: the copy stops before the next block
+        Thread.currentThread().interrupt();
+        try {
+            cli.catToFile("out.txt", false, "testFile1.txt");
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(0, Files.size(TEST_DIR.resolve("out.txt")));
+    }
+
+    @Test
+    void testMetrics() throws IOException {
+        var cli = new Main();
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_FILE1, "12345\n");
+        cli.cd(TEST_DIR.toString());
+
+        long touches = Metrics.latency("touch").count();
+        long touched = Metrics.count(Metrics.Counter.FILES_TOUCHED);
+        long read = Metrics.count(Metrics.Counter.BYTES_READ);
+        cli.execute("touch a b c");
+        cli.execute("cat testFile1.txt");
+        cli.flush();
+        assertEquals(touches + 1, Metrics.latency("touch").count());
+        assertTrue(Metrics.count(Metrics.Counter.FILES_TOUCHED) >= touched + 3);
+        assertTrue(Metrics.count(Metrics.Counter.BYTES_READ) >= read + 6);
+        assertTrue(Metrics.report().contains("touch"));
+
+        // Within 1/16 of the exact value, like HdrHistogram with one significant digit in binary
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000, histogram.max());
+        assertEquals(50_000_000, histogram.percentile(50), 50_000_000 / 16.0);
+        assertEquals(99_000_000, histogram.percentile(99), 99_000_000 / 16.0);
+        assertEquals(Long.MAX_VALUE, Metrics.Histogram.highest(Metrics.Histogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testDaemon() throws Exception {
+        Files.createDirectories(TEST_DIR.resolve("sub"));
+        Files.writeString(TEST_FILE1, "from the daemon\n");
+        Path socket = TEST_DIR.resolve("cli.sock").toAbsolutePath();
+        Daemon daemon = new Daemon(socket);
+        try {
+            daemon.bind();
+            Thread server = Thread.ofVirtual().start(() -> {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            // Sessions at the same time, each in its own directory
+            Thread[] clients = new Thread[8];
+            List<String> outputs = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = Thread.ofVirtual().start(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ByteArrayOutputStream err = new ByteArrayOutputStream();
+                    try {
+                        Client.run(SocketChannel.open(UnixDomainSocketAddress.of(socket)), TEST_DIR,
+                                new String[] { "cat", "testFile1.txt", "missing.txt" }, InputStream.nullInputStream(),
+                                out, err);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    outputs.add(out + "|" + err.toString().trim());
+                });
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertEquals(Collections.nCopies(clients.length, "from the daemon\n|cat: missing.txt: No such file"),
+                    outputs);
+
+            // The words are sent as they are: a space or an operator in one is part of the name
+            Files.writeString(TEST_DIR.resolve("my file.txt"), "spaced\n");
+            ByteArrayOutputStream words = new ByteArrayOutputStream();
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            Client.run(SocketChannel.open(UnixDomainSocketAddress.of(socket)), TEST_DIR,
+                    new String[] { "cat", "my file.txt", ">", "x".repeat(70_000) }, InputStream.nullInputStream(),
+                    words, errors);
+            assertEquals("spaced\n", words.toString());
+            assertEquals(Arrays.asList("cat: >: No such file", "cat: " + "x".repeat(70_000) + ": No such file"),
+                    errors.toString().lines().toList());
+
+            // Bound where nobody else can reach it until only this user may connect
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(TEST_DIR, ".cli-sock*")) {
+                assertFalse(entries.iterator().hasNext());
+            }
+
+            // Without a command line the client's stdin is the script
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Client.run(SocketChannel.open(UnixDomainSocketAddress.of(socket)), TEST_DIR, null,
+                    new ByteArrayInputStream("cd sub\npwd\n".getBytes()), out, OutputStream.nullOutputStream());
+            assertEquals(TEST_DIR.resolve("sub").toAbsolutePath().toString(), out.toString().trim());
+
+            // Ends serve, and with it the server thread
+            daemon.close();
+            server.join();
+        } finally {
+            daemon.close();
+        }
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    void testGlobExpansion() throws IOException {
+        Files.createDirectories(TEST_DIR.resolve("logs/2024/jan"));
+        for (String name : new String[] { "a.tmp", "b.tmp", ".hidden.tmp", "c.log", "logs/x.log", "logs/2024/jan/y.log",
+                "part-1", "part-2", "part-10" }) {
+            Files.writeString(TEST_DIR.resolve(name), name + "\n");
+        }
+        var cli = new Main();
+        cli.cd(TEST_DIR.toString());
+
+        assertEquals(List.of(List.of("a.tmp", "b.tmp"), List.of("c.log", "logs/2024/jan/y.log", "logs/x.log"),
+                List.of("part-1", "part-2"), List.of(".hidden.tmp"), List.of("logs/")),
+                GlobExpansion.matches(List.of("*.tmp", "**/*.log", "part-?", ".*.tmp", "l*/"), cli.resolve(".")));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.execute("cat part-[12]* '*.tmp'");
+        cli.execute("rm *.tmp");
+        cli.execute("ls *.tmp");
+        cli.flush();
+        assertEquals("part-1\npart-10\npart-2\n", outputStream.toString());
+        assertFalse(Files.exists(TEST_DIR.resolve("a.tmp")));
+        assertTrue(Files.exists(TEST_DIR.resolve(".hidden.tmp")));
+    }
+
+    @Test
+    void testGzip() throws IOException {
+        Files.createDirectories(TEST_DIR);
+        // Larger than a block, so the output has several members
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300_000; i++) {
+            text.append(i).append('\n');
+        }
+        Files.writeString(TEST_FILE1, text);
+        try (OutputStream gzip = new GZIPOutputStream(Files.newOutputStream(TEST_DIR.resolve("a.gz")))) {
+            gzip.write("first\n".getBytes());
+        }
+        try (OutputStream gzip = new GZIPOutputStream(Files.newOutputStream(TEST_DIR.resolve("a.gz"),
+                StandardOpenOption.APPEND))) {
+            gzip.write("second\n".getBytes());
+        }
+
+        var cli = new Main();
+        cli.setParallelism(4);
+        cli.cd(TEST_DIR.toString());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.execute("cat a.gz");
+        cli.execute("cat a.gz | grep sec");
+        cli.flush();
+        assertEquals("first\nsecond\nsecond\n", outputStream.toString());
+
+        cli.execute("cat testFile1.txt a.gz >z out.gz");
+        cli.execute("cat a.gz >>z out.gz");
+        cli.flush();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(TEST_DIR.resolve("out.gz")))) {
+            assertEquals(text + "first\nsecond\nfirst\nsecond\n", new String(in.readAllBytes()));
+        }
+
+        outputStream.reset();
+        cli.execute("cat out.gz");
+        cli.flush();
+        assertEquals(text + "first\nsecond\nfirst\nsecond\n", outputStream.toString());
+    }
+
+    @Test
+    void testZstd() throws IOException {
+        Files.createDirectories(TEST_DIR);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300_000; i++) {
+            text.append(i).append('\n');
+        }
+        // Two frames, as appending .zst files gives
+        Files.write(TEST_DIR.resolve("a.zst"), Zstd.compress(text.toString().getBytes(), 3));
+        Files.write(TEST_DIR.resolve("a.zst"), Zstd.compress("last\n".getBytes(), 3), StandardOpenOption.APPEND);
+        byte[] whole = Files.readAllBytes(TEST_DIR.resolve("a.zst"));
+        Files.write(TEST_DIR.resolve("cut.zst"), Arrays.copyOf(whole, whole.length / 2));
+
+        var cli = new Main();
+        cli.cd(TEST_DIR.toString());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errorStream));
+        cli.execute("cat a.zst");
+        cli.execute("cat a.zst | grep last");
+        cli.flush();
+        assertEquals(text + "last\nlast\n", outputStream.toString());
+
+        cli.execute("cat a.zst > out.txt");
+        assertEquals(text + "last\n", Files.readString(TEST_DIR.resolve("out.txt")));
+
+        cli.execute("cat cut.zst > cut.txt");
+        cli.flush();
+        assertEquals("cat: An error occurred while reading the file: Unexpected end of compressed data\n",
+                errorStream.toString());
+    }
+
+    @Test
+    void testChecksumsAndDedupe() throws IOException {
+        Files.createDirectories(TEST_DIR.resolve("a"));
+        Files.createDirectories(TEST_DIR.resolve("b"));
+        Path cacheFile = TEST_DIR.resolve("hashes").toAbsolutePath();
+        Files.writeString(TEST_DIR.resolve("a/abc"), "abc");
+        Files.writeString(TEST_DIR.resolve("b/abc"), "abc");
+        // Same size, same first and last 64 KB, different in the middle
+        byte[] big = new byte[300_000];
+        new Random(1).nextBytes(big);
+        Files.write(TEST_DIR.resolve("a/big"), big);
+        Files.write(TEST_DIR.resolve("b/big"), big);
+        big[150_000]++;
+        Files.write(TEST_DIR.resolve("b/other"), big);
+
+        // Its own cache, the process-wide one is bound to ~/.cli_hashes by whichever test hashes first
+        var cli = new Main();
+        cli.setHashCache(new HashCache(cacheFile));
+        cli.cd(TEST_DIR.toString());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.execute("sha256sum a/abc");
+        cli.execute("md5sum a/abc");
+        cli.flush();
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad  a/abc\n"
+                + "900150983cd24fb0d6963f7d28e17f72  a/abc\n", outputStream.toString());
+
+        outputStream.reset();
+        cli.execute("dedupe .");
+        cli.flush();
+        assertEquals("""
+                300000 bytes, 2 copies:
+                  ./a/big
+                  ./b/big
+                3 bytes, 2 copies:
+                  ./a/abc
+                  ./b/abc
+                dedupe: 2 groups, 2 duplicate files, 300003 bytes reclaimable
+                """, outputStream.toString());
+
+        // Nothing changed, the second run reads the hashes from the cache
+        long read = Metrics.count(Metrics.Counter.BYTES_READ);
+        cli.execute("dedupe .");
+        assertEquals(read, Metrics.count(Metrics.Counter.BYTES_READ));
+        assertTrue(new HashCache(cacheFile).size() >= 7);
+
+        // A torn record makes the next save rewrite the file, through a temp file of its own
+        Files.write(cacheFile, new byte[] { 0, 9, 'x' }, StandardOpenOption.APPEND);
+        HashCache damaged = new HashCache(cacheFile);
+        int size = damaged.size();
+        Path file = Files.writeString(TEST_DIR.resolve("fresh"), "fresh");
+        damaged.put(file, Files.readAttributes(file, BasicFileAttributes.class), HashCache.Kind.PARTIAL, new byte[8]);
+        damaged.save();
+        assertEquals(size + 1, new HashCache(cacheFile).size());
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(TEST_DIR, "hashes.*")) {
+            assertFalse(entries.iterator().hasNext());
+        }
+    }
+
+    @Test
+    void testInMemoryFileSystem() throws IOException {
+        FileSystem fileSystem = FileSystemBackends.memory();
+        var cli = new Main(fileSystem);
+        assertEquals("/work", cli.pwd());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        Files.writeString(fileSystem.getPath("/work/b.txt"), "b\nc\na\n");
+        cli.execute("mkdir -p d/e");
+        cli.execute("cat b.txt > d/e/a.txt");
+        cli.execute("mv d/e/a.txt d/a.txt");
+        cli.execute("begin");
+        cli.execute("rm b.txt");
+        cli.execute("commit");
+        cli.flush();
+        outputStream.reset();
+        cli.execute("find . -name *.txt");
+        // Spills its runs to /tmp of the same file system
+        cli.execute("sort -S 1 d/a.txt");
+        cli.execute("index build .");
+        cli.execute("grep a d/*.txt");
+        cli.flush();
+        assertEquals("""
+                ./d/a.txt
+                a
+                b
+                c
+                Indexed 1 files, 1 new or changed
+                a
+                """, outputStream.toString());
+        assertFalse(Files.exists(Paths.get("d")));
+        try (DirectoryStream<Path> runs = Files.newDirectoryStream(fileSystem.getPath("/tmp"))) {
+            assertFalse(runs.iterator().hasNext());
+        }
+    }
+
+    @Test
+    void testCmpAndDiff() throws IOException {
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_DIR.resolve("a"), "one\ntwo\nthree\nfour\nfive\n");
+        Files.writeString(TEST_DIR.resolve("b"), "one\nzero\nthree\nfive\nsix");
+        Files.writeString(TEST_DIR.resolve("c"), "one\ntwo\nthree\nfour\nfivE\n");
+
+        var cli = new Main();
+        cli.cd(TEST_DIR.toString());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.execute("cmp a a");
+        cli.execute("cmp a b");
+        cli.execute("cmp a c");
+        cli.execute("diff a a");
+        cli.execute("diff a b");
+        cli.flush();
+        assertEquals("""
+                a b differ: size 24, 23
+                a c differ: byte 23, line 5
+                2c2
+                < two
+                ---
+                > zero
+                4d3
+                < four
+                5a5
+                > six
+                \\ No newline at end of file
+                """, outputStream.toString());
+
+        // The in-memory file system cannot map, the blocks are read instead
+        FileSystem fileSystem = FileSystemBackends.memory();
+        byte[] data = new byte[3 << 20];
+        new Random(2).nextBytes(data);
+        Files.write(fileSystem.getPath("/work/x"), data);
+        data[(2 << 20) + 5]++;
+        Files.write(fileSystem.getPath("/work/y"), data);
+        var memory = new Main(fileSystem);
+        outputStream.reset();
+        memory.execute("cmp x y");
+        memory.flush();
+        assertTrue(outputStream.toString().startsWith("x y differ: byte " + ((2 << 20) + 6) + ", line "));
+    }
+
+    @Test
+    void testTransactions() throws IOException {
+        Files.createDirectories(TEST_DIR);
+        Files.writeString(TEST_DIR.resolve("a"), "a\n");
+        Files.writeString(TEST_DIR.resolve("b"), "b\n");
+        Files.writeString(TEST_DIR.resolve("log"), "1\n");
+
+        // Its own journal, the process-wide one would outlive the test directory
+        Journal sessionJournal = new Journal(TEST_DIR.resolve("journal").toAbsolutePath());
+        try {
+            transactions(sessionJournal);
+        } finally {
+            sessionJournal.close();
+        }
+    }
+
+    private void transactions(Journal sessionJournal) throws IOException {
+        var cli = new Main();
+        cli.setJournal(sessionJournal);
+        cli.cd(TEST_DIR.toString());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outputStream));
+        cli.execute("begin");
+        cli.execute("mkdir d");
+        cli.execute("mv a d");
+        cli.execute("cat b > c");
+        cli.execute("cat b >> log");
+        cli.execute("rm b");
+        // Nothing happens before the commit
+        assertTrue(Files.exists(TEST_DIR.resolve("a")));
+        assertFalse(Files.exists(TEST_DIR.resolve("d")));
+        assertEquals("1\n", Files.readString(TEST_DIR.resolve("log")));
+        cli.execute("commit");
+        cli.flush();
+        assertEquals("Committed 5 operations\n", outputStream.toString());
+        assertEquals("a\n", Files.readString(TEST_DIR.resolve("d/a")));
+        assertFalse(Files.exists(TEST_DIR.resolve("b")));
+        assertEquals("b\n", Files.readString(TEST_DIR.resolve("c")));
+        assertEquals("1\nb\n", Files.readString(TEST_DIR.resolve("log")));
+
+        cli.execute("begin");
+        cli.execute("rm -r d");
+        cli.execute("cat c > c");
+        cli.execute("rollback");
+        assertTrue(Files.exists(TEST_DIR.resolve("d/a")));
+        assertEquals("b\n", Files.readString(TEST_DIR.resolve("c")));
+
+        // cat reads from disk, so a file the transaction moved cannot be read, and a failed step fails the commit
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errorStream));
+        cli.flush();
+        outputStream.reset();
+        cli.execute("begin");
+        cli.execute("mv c e");
+        cli.execute("cat e > f");
+        cli.execute("commit");
+        cli.flush();
+        assertEquals("", outputStream.toString());
+        assertEquals(Arrays.asList("cat: e: changed in this transaction, commit first",
+                "commit: a command in the transaction failed, rolled back 1 operations"),
+                errorStream.toString().lines().toList());
+        assertTrue(Files.exists(TEST_DIR.resolve("c")));
+        assertFalse(Files.exists(TEST_DIR.resolve("e")));
+        assertFalse(Files.exists(TEST_DIR.resolve("f")));
+
+        // A commit record without the done record after it: the next start applies the steps
+        Path crashed = TEST_DIR.resolve("crashed");
+        Journal journal = new Journal(crashed);
+        Journal.Transaction transaction = journal.begin();
+        transaction.move(TEST_DIR.resolve("c"), TEST_DIR.resolve("d"));
+        transaction.delete(TEST_DIR.resolve("log"), false);
+        journal.prepare(transaction);
+        journal.close();
+        assertTrue(Files.exists(TEST_DIR.resolve("c")));
+
+        // A rename cannot cross file systems, planning refuses what commit could not undo
+        Path shm = Paths.get("/dev/shm");
+        if (Files.isDirectory(shm) && !Files.getFileStore(shm).equals(Files.getFileStore(TEST_DIR))) {
+            Journal.Transaction crossing = journal.begin();
+            IOException refused = assertThrows(IOException.class, () -> crossing.move(TEST_DIR.resolve("c"), shm));
+            assertTrue(refused.getMessage().endsWith("to another file system in a transaction"));
+        }
+
+        assertEquals(1, new Journal(crashed).recover().size());
+        assertEquals("b\n", Files.readString(TEST_DIR.resolve("d/c")));
+        assertFalse(Files.exists(TEST_DIR.resolve("log")));
+        assertEquals(0, Files.size(crashed));
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(TEST_DIR, ".cli-*")) {
+            assertFalse(entries.iterator().hasNext());
+        }
+    }
+
     @AfterEach
     void tearDown() throws IOException {
         Path testDir = Paths.get("testDir");
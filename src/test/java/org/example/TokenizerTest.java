@@ -0,0 +1,73 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+class TokenizerTest {
+
+    private static String words(String line) {
+        return Arrays.toString(Tokenizer.words(Tokenizer.tokenize(line)));
+    }
+
+    @Test
+    void testRepeatedSpaces() {
+        assertEquals("[mv, a.txt, b.txt]", words("  mv   a.txt \t b.txt  "));
+    }
+
+    @Test
+    void testQuotesAndEscapes() {
+        assertEquals("[cat, my file.txt, it's, a\"b, x y]", words("cat 'my file.txt' \"it's\" \"a\\\"b\" x\\ y"));
+    }
+
+    @Test
+    void testOperators() {
+        List<Tokenizer.Token> tokens = Tokenizer.tokenize("cat a b>>out.txt");
+        assertEquals("[cat, a, b, >>, out.txt]", Arrays.toString(Tokenizer.words(tokens)));
+        assertEquals(Tokenizer.Type.APPEND, tokens.get(3).type());
+
+        assertEquals(Tokenizer.Type.WORD, Tokenizer.tokenize("cat '>'").get(1).type());
+        assertEquals("{4}", Tokenizer.operators(Tokenizer.tokenize("cat a '>' b > c")).toString());
+
+        tokens = Tokenizer.tokenize("mv a b&");
+        assertEquals(Tokenizer.Type.BACKGROUND, tokens.get(3).type());
+        assertEquals(3, Tokenizer.indexOf(tokens, Tokenizer.Type.BACKGROUND));
+        assertEquals(-1, Tokenizer.indexOf(Tokenizer.tokenize("echo 'a&b'"), Tokenizer.Type.BACKGROUND));
+
+        assertEquals("[cat, a, >z, a.gz]", Arrays.toString(Tokenizer.words(Tokenizer.tokenize("cat a >z a.gz"))));
+        assertEquals("[cat, a, >>z, a.gz]", Arrays.toString(Tokenizer.words(Tokenizer.tokenize("cat a>>z a.gz"))));
+        assertEquals("[cat, a, >, zip]", Arrays.toString(Tokenizer.words(Tokenizer.tokenize("cat a >zip"))));
+    }
+
+    @Test
+    void testPipeStages() {
+        List<String[]> stages = Tokenizer.stages(Tokenizer.tokenize("cat a.log|grep 'x | y' | head -n 3"));
+        assertEquals(3, stages.size());
+        assertEquals("[grep, x | y]", Arrays.toString(stages.get(1)));
+        assertEquals("[head, -n, 3]", Arrays.toString(stages.get(2)));
+    }
+
+    @Test
+    void testUnterminatedQuote() {
+        assertThrows(IllegalArgumentException.class, () -> Tokenizer.tokenize("cat 'oops"));
+    }
+
+    @Test
+    void testBraceExpansion() {
+        assertEquals("[a/1/b, a/2/b, a/3/b]", BraceExpansion.expand("a/{1..3}/b").toString());
+        assertEquals("[x1, x2, y1, y2]", BraceExpansion.expand("{x,y}{1,2}").toString());
+        assertEquals("[08, 09, 10]", BraceExpansion.expand("{08..10}").toString());
+        assertEquals("[e, c, a]", BraceExpansion.expand("{e..a..2}").toString());
+        assertEquals("[ab, acd, ace]", BraceExpansion.expand("a{b,c{d,e}}").toString());
+        assertEquals("[{}, {a}, {1..}]", Arrays.asList(BraceExpansion.expand("{}").get(0),
+                BraceExpansion.expand("{a}").get(0), BraceExpansion.expand("{1..}").get(0)).toString());
+    }
+
+    @Test
+    void testQuotedBracesAreLiteral() {
+        List<Tokenizer.Token> tokens = BraceExpansion.expand(Tokenizer.tokenize("mkdir d{1,2} 'q{1,2}'"));
+        assertEquals("[mkdir, d1, d2, q{1,2}]", Arrays.toString(Tokenizer.words(tokens)));
+    }
+}